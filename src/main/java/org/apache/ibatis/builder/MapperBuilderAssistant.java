@@ -31,6 +31,7 @@ import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.mapping.CacheBuilder;
 import org.apache.ibatis.mapping.Discriminator;
+import org.apache.ibatis.mapping.Environment;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ParameterMap;
 import org.apache.ibatis.mapping.ParameterMapping;
@@ -43,6 +44,8 @@ import org.apache.ibatis.mapping.SqlCommandType;
 import org.apache.ibatis.mapping.SqlSource;
 import org.apache.ibatis.mapping.StatementType;
 import org.apache.ibatis.reflection.MetaClass;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.SystemMetaObject;
 import org.apache.ibatis.scripting.LanguageDriver;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.type.JdbcType;
@@ -134,20 +137,46 @@ public class MapperBuilderAssistant extends BaseBuilder {
       boolean readWrite,
       boolean blocking,
       Properties props) {
-    Cache cache = new CacheBuilder(currentNamespace)
+    if (props != null && props.containsKey("snapshotInterval")) {
+      // the snapshots of the cache are only loaded back for the same database
+      setSnapshotDatabase(props);
+    }
+    CacheBuilder cacheBuilder = new CacheBuilder(currentNamespace);
+    Cache cache = cacheBuilder
         .implementation(valueOrDefault(typeClass, PerpetualCache.class))
         .addDecorator(valueOrDefault(evictionClass, LruCache.class))
         .clearInterval(flushInterval)
         .size(size)
         .readWrite(readWrite)
         .blocking(blocking)
+        .weightBudget(configuration.getCacheWeightBudget())
         .properties(props)
         .build();
     configuration.addCache(cache);
+    configuration.addCacheTagIndexFactory(cache.getId(), cacheBuilder::buildTagIndex);
     currentCache = cache;
     return cache;
   }
 
+  private void setSnapshotDatabase(Properties props) {
+    Environment environment = configuration.getEnvironment();
+    if (environment == null) {
+      return;
+    }
+    if (!props.containsKey("environmentId")) {
+      props.setProperty("environmentId", environment.getId());
+    }
+    MetaObject metaDataSource = SystemMetaObject.forObject(environment.getDataSource());
+    for (String property : new String[] {"url", "jdbcUrl"}) {
+      if (!props.containsKey("dataSourceUrl") && metaDataSource.hasGetter(property)) {
+        Object url = metaDataSource.getValue(property);
+        if (url != null) {
+          props.setProperty("dataSourceUrl", url.toString());
+        }
+      }
+    }
+  }
+
   public ParameterMap addParameterMap(String id, Class<?> parameterClass, List<ParameterMapping> parameterMappings) {
     id = applyCurrentNamespace(id, false);
     ParameterMap parameterMap = new ParameterMap.Builder(configuration, id, parameterClass, parameterMappings).build();
@@ -267,7 +296,8 @@ public class MapperBuilderAssistant extends BaseBuilder {
       String keyColumn,
       String databaseId,
       LanguageDriver lang,
-      String resultSets) {
+      String resultSets,
+      String cacheTags) {
     // 如果对应的Cache未解析，抛出 IncompleteElementException 异常
     if (unresolvedCacheRef) {
       throw new IncompleteElementException("Cache-ref not yet resolved");
@@ -288,6 +318,7 @@ public class MapperBuilderAssistant extends BaseBuilder {
         .lang(lang)
         .resultOrdered(resultOrdered)
         .resultSets(resultSets)
+        .cacheTags(cacheTags)
         .resultMaps(getStatementResultMaps(resultMap, resultType, id))
         .resultSetType(resultSetType)
         .flushCacheRequired(valueOrDefault(flushCache, !isSelect))
@@ -301,6 +332,10 @@ public class MapperBuilderAssistant extends BaseBuilder {
 
     MappedStatement statement = statementBuilder.build();
     configuration.addMappedStatement(statement);
+    if (currentCache != null && statement.getCacheTags() != null) {
+      // the cache may be declared by another namespace through cache-ref
+      configuration.enableCacheTags(currentCache.getId());
+    }
     return statement;
   }
 
@@ -496,4 +531,16 @@ public class MapperBuilderAssistant extends BaseBuilder {
       keyColumn, databaseId, lang, null);
   }
 
+  public MappedStatement addMappedStatement(String id, SqlSource sqlSource, StatementType statementType,
+      SqlCommandType sqlCommandType, Integer fetchSize, Integer timeout, String parameterMap, Class<?> parameterType,
+      String resultMap, Class<?> resultType, ResultSetType resultSetType, boolean flushCache, boolean useCache,
+      boolean resultOrdered, KeyGenerator keyGenerator, String keyProperty, String keyColumn, String databaseId,
+      LanguageDriver lang, String resultSets) {
+    return addMappedStatement(
+      id, sqlSource, statementType, sqlCommandType, fetchSize, timeout,
+      parameterMap, parameterType, resultMap, resultType, resultSetType,
+      flushCache, useCache, resultOrdered, keyGenerator, keyProperty,
+      keyColumn, databaseId, lang, resultSets, null);
+  }
+
 }
@@ -17,6 +17,9 @@ package org.apache.ibatis.builder.xml;
 
 import java.io.InputStream;
 import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -47,6 +50,9 @@ import org.apache.ibatis.reflection.MetaClass;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.type.JdbcType;
 import org.apache.ibatis.type.TypeHandler;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 
 /**
  * @author Clinton Begin
@@ -246,11 +252,45 @@ public class XMLMapperBuilder extends BaseBuilder {
       boolean blocking = context.getBooleanAttribute("blocking", false);
       // 获得 Properties 属性
       Properties props = context.getChildrenAsProperties();
+      if (props.containsKey("snapshotInterval") && !props.containsKey("mapperHash")) {
+        // the snapshots of the cache are only loaded back by the same mapper
+        props.setProperty("mapperHash", hash(context.getNode().getParentNode()));
+      }
       // 创建 Cache 对象
       builderAssistant.useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, props);
     }
   }
 
+  private static String hash(Node node) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      updateDigest(digest, node);
+      StringBuilder hash = new StringBuilder();
+      for (byte b : digest.digest()) {
+        hash.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+      return hash.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new BuilderException("Error hashing the mapper.  Cause: " + e, e);
+    }
+  }
+
+  private static void updateDigest(MessageDigest digest, Node node) {
+    digest.update(node.getNodeName().getBytes(StandardCharsets.UTF_8));
+    if (node.getNodeType() == Node.TEXT_NODE || node.getNodeType() == Node.CDATA_SECTION_NODE) {
+      digest.update(node.getNodeValue().getBytes(StandardCharsets.UTF_8));
+    }
+    NamedNodeMap attributes = node.getAttributes();
+    for (int i = 0; attributes != null && i < attributes.getLength(); i++) {
+      Node attribute = attributes.item(i);
+      digest.update((attribute.getNodeName() + "=" + attribute.getNodeValue()).getBytes(StandardCharsets.UTF_8));
+    }
+    NodeList children = node.getChildNodes();
+    for (int i = 0; i < children.getLength(); i++) {
+      updateDigest(digest, children.item(i));
+    }
+  }
+
   private void parameterMapElement(List<XNode> list) {
     for (XNode parameterMapNode : list) {
       String id = parameterMapNode.getStringAttribute("id");
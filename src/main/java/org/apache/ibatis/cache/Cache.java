@@ -95,4 +95,26 @@ public interface Cache {
    */
   ReadWriteLock getReadWriteLock();
 
+  /**
+   * Optional. Reads an entry without the side effects of {@link #getObject(Object)}: the entry is neither promoted by
+   * an eviction policy, nor expired, reloaded or counted. It is used to copy the entries of a cache.
+   *
+   * @param key The key
+   * @return The object stored in the cache, or null if there is none or this cache cannot read it without side effects
+   * @since 3.5.2
+   */
+  default Object peekObject(Object key) {
+    return null;
+  }
+
+  /**
+   * Optional. The caches built by MyBatis record statistics in their {@code LoggingCache} decorator.
+   *
+   * @return The statistics of this cache, or null if it does not record any
+   * @since 3.5.2
+   */
+  default CacheStats getStats() {
+    return null;
+  }
+
 }
@@ -0,0 +1,41 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * Makes the copies of the cached objects that a read/write cache stores and returns, so that callers never share
+ * an instance with the cache or with each other.
+ * <p>
+ * Implementations must be thread safe and have a public no-argument constructor to be usable from a mapper file.
+ *
+ * @see org.apache.ibatis.cache.decorators.SerializedCache#setCopyStrategy(CacheCopyStrategy)
+ * @since 3.5.2
+ */
+public interface CacheCopyStrategy {
+
+  /**
+   * @param value The result of a select, never null
+   * @return The form in which the value is stored, independent from the given instance
+   */
+  Object copyToCache(Object value);
+
+  /**
+   * @param cached A value returned by {@link #copyToCache(Object)}
+   * @return A copy of the value, independent from the stored one
+   */
+  Object copyFromCache(Object cached);
+
+}
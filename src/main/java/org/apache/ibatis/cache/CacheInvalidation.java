@@ -0,0 +1,63 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Invalidation of the entries of a second level cache, sent by a {@link CacheInvalidationBus} to the other nodes of
+ * a cluster once a transaction writing to the database has been committed.
+ *
+ * @since 3.5.2
+ */
+public class CacheInvalidation implements Serializable {
+
+  private static final long serialVersionUID = 4352287162364927601L;
+
+  private final String cacheId;
+  private final String[] tags;
+
+  /**
+   * @param cacheId the id of the cache, that is the namespace that declares it
+   * @param tags the cache tags of the entries to evict, or null to flush the whole cache
+   */
+  public CacheInvalidation(String cacheId, String[] tags) {
+    this.cacheId = cacheId;
+    this.tags = tags;
+  }
+
+  public String getCacheId() {
+    return cacheId;
+  }
+
+  /**
+   * @return the cache tags of the entries to evict, or null if the whole cache must be flushed
+   */
+  public String[] getTags() {
+    return tags;
+  }
+
+  public boolean isFlush() {
+    return tags == null;
+  }
+
+  @Override
+  public String toString() {
+    return cacheId + (tags == null ? " (flush)" : " " + Arrays.toString(tags));
+  }
+
+}
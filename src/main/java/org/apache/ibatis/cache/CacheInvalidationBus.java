@@ -0,0 +1,47 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * Broadcasts the invalidations of the second level caches between the nodes of a cluster, so that each node can keep
+ * local caches without serving the data other nodes have changed.
+ * <p>
+ * Invalidations are published once the transaction that caused them has been committed and applied to the local
+ * caches. Implementations must not deliver them back to the listeners of the node that published them, and may
+ * deliver them asynchronously. Implementations configured with the <code>cacheInvalidationBus</code> setting need a
+ * public no-arg constructor.
+ *
+ * @see org.apache.ibatis.session.Configuration#setCacheInvalidationBus(CacheInvalidationBus)
+ * @see org.apache.ibatis.cache.impl.LoopbackCacheInvalidationBus
+ * @since 3.5.2
+ */
+public interface CacheInvalidationBus {
+
+  /**
+   * Sends an invalidation to the other nodes.
+   *
+   * @param invalidation the invalidation to send
+   */
+  void publish(CacheInvalidation invalidation);
+
+  /**
+   * Registers a listener for the invalidations sent by the other nodes.
+   *
+   * @param listener the listener to register
+   */
+  void subscribe(CacheInvalidationListener listener);
+
+}
@@ -15,9 +15,10 @@
  */
 package org.apache.ibatis.cache;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 import java.util.StringJoiner;
 
 import org.apache.ibatis.reflection.ArrayUtil;
@@ -27,25 +28,28 @@ import org.apache.ibatis.reflection.ArrayUtil;
  */
 public class CacheKey implements Cloneable, Serializable {
 
-  private static final long serialVersionUID = 1146682552656046210L;
+  // changed in 3.5.2, when the components moved from a list to an array: older keys cannot be read back
+  private static final long serialVersionUID = 3658718384563726398L;
 
   public static final CacheKey NULL_CACHE_KEY = new NullCacheKey();
 
   private static final int DEFAULT_MULTIPLYER = 37;
   private static final int DEFAULT_HASHCODE = 17;
+  private static final int DEFAULT_CAPACITY = 8;
 
   private final int multiplier;
   private int hashcode;
   private long checksum;
   private int count;
   // 8/21/2017 - Sonarlint flags this as needing to be marked transient.  While true if content is not serializable, this is not always true and thus should not be marked transient.
-  private List<Object> updateList;
+  private Object[] updateList;
+  private String[] tags;
 
   public CacheKey() {
     this.hashcode = DEFAULT_HASHCODE;
     this.multiplier = DEFAULT_MULTIPLYER;
     this.count = 0;
-    this.updateList = new ArrayList<>();
+    this.updateList = new Object[DEFAULT_CAPACITY];
   }
 
   public CacheKey(Object[] objects) {
@@ -54,11 +58,11 @@ public class CacheKey implements Cloneable, Serializable {
   }
 
   public int getUpdateCount() {
-    return updateList.size();
+    return count;
   }
 
   public void update(Object object) {
-    int baseHashCode = object == null ? 1 : ArrayUtil.hashCode(object);
+    int baseHashCode = object == null ? 1 : mix(ArrayUtil.hashCode(object));
 
     count++;
     checksum += baseHashCode;
@@ -67,7 +71,28 @@ public class CacheKey implements Cloneable, Serializable {
     // hashcode * 扩展因子（默认37）+ 拓展扩大后的对象hashcode
     hashcode = multiplier * hashcode + baseHashCode;
 
-    updateList.add(object);
+    if (count > updateList.length) {
+      updateList = Arrays.copyOf(updateList, updateList.length * 2);
+    }
+    updateList[count - 1] = object;
+  }
+
+  /**
+   * @return the cache tags of the statement this key was created for, or null if it has none
+   * @since 3.5.2
+   */
+  public String[] getTags() {
+    return tags;
+  }
+
+  /**
+   * Sets the cache tags of the statement this key is created for. They are not part of the identity of the key.
+   *
+   * @param tags the cache tags
+   * @since 3.5.2
+   */
+  public void setTags(String[] tags) {
+    this.tags = tags;
   }
 
   public void updateAll(Object[] objects) {
@@ -97,10 +122,10 @@ public class CacheKey implements Cloneable, Serializable {
       return false;
     }
 
-    for (int i = 0; i < updateList.size(); i++) {
-      Object thisObject = updateList.get(i);
-      Object thatObject = cacheKey.updateList.get(i);
-      if (!ArrayUtil.equals(thisObject, thatObject)) {
+    for (int i = 0; i < count; i++) {
+      Object thisObject = updateList[i];
+      Object thatObject = cacheKey.updateList[i];
+      if (thisObject != thatObject && !ArrayUtil.equals(thisObject, thatObject)) {
         return false;
       }
     }
@@ -117,15 +142,42 @@ public class CacheKey implements Cloneable, Serializable {
     StringJoiner returnValue = new StringJoiner(":");
     returnValue.add(String.valueOf(hashcode));
     returnValue.add(String.valueOf(checksum));
-    updateList.stream().map(ArrayUtil::toString).forEach(returnValue::add);
+    for (int i = 0; i < count; i++) {
+      returnValue.add(ArrayUtil.toString(updateList[i]));
+    }
     return returnValue.toString();
   }
 
   @Override
   public CacheKey clone() throws CloneNotSupportedException {
     CacheKey clonedCacheKey = (CacheKey) super.clone();
-    clonedCacheKey.updateList = new ArrayList<>(updateList);
+    clonedCacheKey.updateList = updateList.clone();
     return clonedCacheKey;
   }
 
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    // some hash codes, such as the ones of enums, are not the same from a JVM to another
+    Object[] objects = Arrays.copyOf(updateList, count);
+    hashcode = DEFAULT_HASHCODE;
+    checksum = 0;
+    count = 0;
+    for (Object object : objects) {
+      update(object);
+    }
+  }
+
+  /**
+   * Spreads the bits of a hash code, so that keys that only differ by small numbers such as ids or offsets do not
+   * collide as often once combined.
+   */
+  private static int mix(int hash) {
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    hash ^= hash >>> 16;
+    return hash;
+  }
+
 }
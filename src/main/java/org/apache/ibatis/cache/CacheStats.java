@@ -0,0 +1,178 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Statistics of a second level cache, recorded with striped counters so that concurrent lookups do not contend on
+ * them.
+ * <p>
+ * The counters are cumulative since the cache was built and are read on demand, so a set of values read one after the
+ * other is not an atomic snapshot.
+ *
+ * @see Cache#getStats()
+ * @since 3.5.2
+ */
+public class CacheStats {
+
+  /**
+   * Why an entry left the cache.
+   */
+  public enum EvictionCause {
+    /** Evicted to bound the size or the weight of the cache. */
+    SIZE,
+    /** Expired after its time to live. */
+    EXPIRED,
+    /** Reclaimed by the garbage collector. */
+    COLLECTED,
+    /** Removed by a write on a cache tag or by a rollback. */
+    REMOVED
+  }
+
+  private final IntSupplier size;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder puts = new LongAdder();
+  private final LongAdder loads = new LongAdder();
+  private final LongAdder loadTime = new LongAdder();
+  private final LongAdder clears = new LongAdder();
+  private final LongAdder[] evictions = new LongAdder[EvictionCause.values().length];
+
+  /**
+   * @param size the supplier of the current number of entries
+   */
+  public CacheStats(IntSupplier size) {
+    this.size = size;
+    for (int i = 0; i < evictions.length; i++) {
+      evictions[i] = new LongAdder();
+    }
+  }
+
+  public void recordHit() {
+    hits.increment();
+  }
+
+  public void recordMiss() {
+    misses.increment();
+  }
+
+  public void recordPut() {
+    puts.increment();
+  }
+
+  /**
+   * @param nanos the time spent loading from the database the value of a missed entry
+   */
+  public void recordLoad(long nanos) {
+    loads.increment();
+    loadTime.add(nanos);
+  }
+
+  public void recordClear() {
+    clears.increment();
+  }
+
+  public void recordEviction(EvictionCause cause) {
+    evictions[cause.ordinal()].increment();
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  public long getRequestCount() {
+    return hits.sum() + misses.sum();
+  }
+
+  /**
+   * @return the ratio of lookups that were hits, 0 if there was no lookup yet
+   */
+  public double getHitRatio() {
+    long hitCount = hits.sum();
+    long requestCount = hitCount + misses.sum();
+    return requestCount == 0 ? 0 : (double) hitCount / requestCount;
+  }
+
+  public long getPutCount() {
+    return puts.sum();
+  }
+
+  public long getLoadCount() {
+    return loads.sum();
+  }
+
+  /**
+   * @return the total time spent loading missed entries from the database, in nanoseconds
+   */
+  public long getTotalLoadTime() {
+    return loadTime.sum();
+  }
+
+  /**
+   * @return the average time spent loading a missed entry from the database, in nanoseconds
+   */
+  public double getAverageLoadTime() {
+    long loadCount = loads.sum();
+    return loadCount == 0 ? 0 : (double) loadTime.sum() / loadCount;
+  }
+
+  public long getClearCount() {
+    return clears.sum();
+  }
+
+  public long getEvictionCount(EvictionCause cause) {
+    return evictions[cause.ordinal()].sum();
+  }
+
+  /**
+   * @return the number of entries that left the cache for any cause, the clears excepted
+   */
+  public long getEvictionCount() {
+    long count = 0;
+    for (LongAdder eviction : evictions) {
+      count += eviction.sum();
+    }
+    return count;
+  }
+
+  /**
+   * @return the current number of entries
+   */
+  public int getSize() {
+    return size.getAsInt();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("CacheStats{hits=").append(getHitCount())
+        .append(", misses=").append(getMissCount())
+        .append(", puts=").append(getPutCount())
+        .append(", loads=").append(getLoadCount())
+        .append(", totalLoadTime=").append(getTotalLoadTime())
+        .append(", clears=").append(getClearCount());
+    for (EvictionCause cause : EvictionCause.values()) {
+      builder.append(", evictions[").append(cause).append("]=").append(getEvictionCount(cause));
+    }
+    return builder.append(", size=").append(getSize()).append('}').toString();
+  }
+
+}
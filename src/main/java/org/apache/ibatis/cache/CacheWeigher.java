@@ -0,0 +1,38 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * Estimates the memory retained by a cache entry, so that a cache can be bounded by size in bytes rather than by
+ * number of entries.
+ * <p>
+ * Implementations must have a public no-argument constructor to be usable from a mapper file.
+ *
+ * @see org.apache.ibatis.cache.decorators.WeightedCache
+ * @since 3.5.2
+ */
+@FunctionalInterface
+public interface CacheWeigher {
+
+  /**
+   * @param key The key of the entry, usually a {@link CacheKey}
+   * @param value The cached result of a select. It is a byte array when the cache is read/write, because the values
+   *          are stored serialized.
+   * @return The estimated number of bytes retained by the entry, never negative
+   */
+  long weigh(Object key, Object value);
+
+}
@@ -18,6 +18,7 @@ package org.apache.ibatis.cache;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.apache.ibatis.cache.decorators.CacheTagIndex;
 import org.apache.ibatis.cache.decorators.TransactionalCache;
 
 /**
@@ -26,11 +27,31 @@ import org.apache.ibatis.cache.decorators.TransactionalCache;
 public class TransactionalCacheManager {
 
   private final Map<Cache, TransactionalCache> transactionalCaches = new HashMap<>();
+  private final CacheInvalidationBus invalidationBus;
+
+  public TransactionalCacheManager() {
+    this(null);
+  }
+
+  /**
+   * @param invalidationBus the bus to publish the committed invalidations to, or null
+   * @since 3.5.2
+   */
+  public TransactionalCacheManager(CacheInvalidationBus invalidationBus) {
+    this.invalidationBus = invalidationBus;
+  }
 
   public void clear(Cache cache) {
     getTransactionalCache(cache).clear();
   }
 
+  /**
+   * @since 3.5.2
+   */
+  public void evictTags(Cache cache, CacheTagIndex tagIndex, String[] tags) {
+    getTransactionalCache(cache).evictTags(tagIndex, tags);
+  }
+
   public Object getObject(Cache cache, CacheKey key) {
     return getTransactionalCache(cache).getObject(key);
   }
@@ -52,7 +73,7 @@ public class TransactionalCacheManager {
   }
 
   private TransactionalCache getTransactionalCache(Cache cache) {
-    return transactionalCaches.computeIfAbsent(cache, TransactionalCache::new);
+    return transactionalCaches.computeIfAbsent(cache, c -> new TransactionalCache(c, invalidationBus));
   }
 
 }
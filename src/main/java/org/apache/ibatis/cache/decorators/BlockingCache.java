@@ -15,14 +15,16 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheStats;
 
 /**
  * Simple blocking decorator
@@ -30,6 +32,13 @@ import org.apache.ibatis.cache.CacheException;
  * Simple and inefficient version of EhCache's BlockingCache decorator.
  * It sets a lock over a cache key when the element is not found in cache.
  * This way, other threads will wait until this element is filled instead of hitting the database.
+ * <p>
+ * The first thread that misses a key gets to load it, and the other threads missing it wait for the same load
+ * rather than for a lock, which is forgotten as soon as the element is filled or released. If the load fails, the
+ * waiting threads fail with the same cause. If the element is released without being filled, for example because the
+ * transaction that loaded it was rolled back, one of the waiting threads gets to load it instead. A thread elected to
+ * refresh an element ahead of its expiry, see {@link ExpiringCache#setRefreshAhead(long)}, reloads it without making
+ * the other threads wait, as they are still served the current element.
  *
  * @author Eduardo Macarron
  *
@@ -38,11 +47,11 @@ public class BlockingCache implements Cache {
 
   private long timeout;
   private final Cache delegate;
-  private final ConcurrentHashMap<Object, ReentrantLock> locks;
+  private final ConcurrentHashMap<Object, Load> loads;
 
   public BlockingCache(Cache delegate) {
     this.delegate = delegate;
-    this.locks = new ConcurrentHashMap<>();
+    this.loads = new ConcurrentHashMap<>();
   }
 
   @Override
@@ -60,27 +69,62 @@ public class BlockingCache implements Cache {
     try {
       delegate.putObject(key, value);
     } finally {
-      releaseLock(key);
+      Load load = loads.remove(key);
+      if (load != null) {
+        load.complete(null);
+      }
     }
   }
 
   @Override
   public Object getObject(Object key) {
-    acquireLock(key);
-    Object value = delegate.getObject(key);
-    if (value != null) {
-      releaseLock(key);
+    for (;;) {
+      Object value = delegate.getObject(key);
+      if (value != null) {
+        return value;
+      }
+      if (delegate.peekObject(key) != null) {
+        // a refresh-ahead miss: the current value is still served to the other threads while this one reloads it
+        return null;
+      }
+      Load load = new Load();
+      Load inProgress = loads.putIfAbsent(key, load);
+      if (inProgress == null) {
+        // the element may have been filled since it was read
+        value = delegate.getObject(key);
+        if (value != null) {
+          releaseLoad(key);
+        }
+        return value;
+      }
+      if (inProgress.isOwnedByCurrentThread()) {
+        return null;
+      }
+      awaitLoad(key, inProgress);
     }
-    return value;
   }
 
   @Override
   public Object removeObject(Object key) {
     // despite of its name, this method is called only to release locks
-    releaseLock(key);
+    releaseLoad(key);
     return null;
   }
 
+  /**
+   * Releases a key the current thread failed to load, so that the threads waiting for it fail with the same cause.
+   *
+   * @param key the key that was missed by the current thread
+   * @param cause the reason why the key could not be loaded
+   * @since 3.5.2
+   */
+  public void failObject(Object key, Throwable cause) {
+    Load load = loads.get(key);
+    if (load != null && load.isOwnedByCurrentThread() && loads.remove(key, load)) {
+      load.completeExceptionally(cause);
+    }
+  }
+
   @Override
   public void clear() {
     delegate.clear();
@@ -91,30 +135,31 @@ public class BlockingCache implements Cache {
     return null;
   }
 
-  private ReentrantLock getLockForKey(Object key) {
-    return locks.computeIfAbsent(key, k -> new ReentrantLock());
+  @Override
+  public CacheStats getStats() {
+    return delegate.getStats();
   }
 
-  private void acquireLock(Object key) {
-    Lock lock = getLockForKey(key);
-    if (timeout > 0) {
-      try {
-        boolean acquired = lock.tryLock(timeout, TimeUnit.MILLISECONDS);
-        if (!acquired) {
-          throw new CacheException("Couldn't get a lock in " + timeout + " for the key " +  key + " at the cache " + delegate.getId());
-        }
-      } catch (InterruptedException e) {
-        throw new CacheException("Got interrupted while trying to acquire lock for key " + key, e);
+  private void awaitLoad(Object key, Load load) {
+    try {
+      if (timeout > 0) {
+        load.get(timeout, TimeUnit.MILLISECONDS);
+      } else {
+        load.get();
       }
-    } else {
-      lock.lock();
+    } catch (TimeoutException e) {
+      throw new CacheException("Couldn't get a lock in " + timeout + " for the key " +  key + " at the cache " + delegate.getId());
+    } catch (InterruptedException e) {
+      throw new CacheException("Got interrupted while trying to acquire lock for key " + key, e);
+    } catch (ExecutionException e) {
+      throw new CacheException("Error loading the key " + key + " at the cache " + delegate.getId() + ".  Cause: " + e.getCause(), e.getCause());
     }
   }
 
-  private void releaseLock(Object key) {
-    ReentrantLock lock = locks.get(key);
-    if (lock.isHeldByCurrentThread()) {
-      lock.unlock();
+  private void releaseLoad(Object key) {
+    Load load = loads.get(key);
+    if (load != null && load.isOwnedByCurrentThread() && loads.remove(key, load)) {
+      load.complete(null);
     }
   }
 
@@ -125,4 +170,13 @@ public class BlockingCache implements Cache {
   public void setTimeout(long timeout) {
     this.timeout = timeout;
   }
+
+  private static class Load extends CompletableFuture<Void> {
+    private final Thread owner = Thread.currentThread();
+
+    boolean isOwnedByCurrentThread() {
+      return owner == Thread.currentThread();
+    }
+  }
+
 }
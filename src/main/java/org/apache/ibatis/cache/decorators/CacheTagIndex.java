@@ -0,0 +1,161 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheKey;
+
+/**
+ * Index of the entries of a cache by the cache tags of the statements that loaded them, so that a statement writing
+ * to some tables only evicts the entries read from them instead of clearing the whole cache.
+ * <p>
+ * The index is kept up to date by the base cache, which reports the entries it stores, removes and evicts by itself,
+ * and the entries are evicted through the fully decorated cache set with {@link #setCache(Cache)}. Entries loaded by statements without
+ * tags may depend on any table, so they are evicted by every tag.
+ *
+ * @see org.apache.ibatis.mapping.MappedStatement#getCacheTags()
+ * @since 3.5.2
+ */
+public class CacheTagIndex {
+
+  private static final String UNTAGGED = "";
+  private static final String[] NO_TAGS = {UNTAGGED};
+
+  private final Map<Object, String[]> keyTags = new HashMap<>();
+  private final Map<String, Set<Object>> taggedKeys = new HashMap<>();
+  private volatile Cache cache;
+
+  /**
+   * @return the decorated cache through which the entries are evicted, or null if the index is not maintained
+   */
+  public Cache getCache() {
+    return cache;
+  }
+
+  /**
+   * @param cache the decorated cache through which the entries are evicted
+   */
+  public void setCache(Cache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Evicts the entries loaded by statements sharing any of the given tags, or by statements without tags.
+   *
+   * @param tags the cache tags of a statement that writes to the database
+   */
+  public void evict(Collection<String> tags) {
+    List<Object> keys = new ArrayList<>();
+    synchronized (this) {
+      collectKeys(UNTAGGED, keys);
+      for (String tag : tags) {
+        collectKeys(tag, keys);
+      }
+    }
+    for (Object key : keys) {
+      cache.removeObject(key);
+    }
+  }
+
+  /**
+   * @param key a cache key
+   * @param tags the cache tags of a statement that writes to the database
+   * @return true if the entry of the given key would be evicted by the given tags
+   */
+  public static boolean isEvictedBy(Object key, Collection<String> tags) {
+    String[] keyTags = key instanceof CacheKey ? ((CacheKey) key).getTags() : null;
+    if (keyTags == null || keyTags.length == 0) {
+      return true;
+    }
+    for (String tag : keyTags) {
+      if (tags.contains(tag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Indexes an entry stored by the base cache.
+   *
+   * @param key the key of the entry
+   */
+  public synchronized void add(Object key) {
+    String[] tags = key instanceof CacheKey ? ((CacheKey) key).getTags() : null;
+    if (tags == null || tags.length == 0) {
+      tags = NO_TAGS;
+    }
+    String[] previous = keyTags.put(key, tags);
+    if (previous != null) {
+      unlink(key, previous);
+    }
+    for (String tag : tags) {
+      taggedKeys.computeIfAbsent(tag, k -> new HashSet<>()).add(key);
+    }
+  }
+
+  /**
+   * Forgets an entry removed or evicted by the base cache.
+   *
+   * @param key the key of the entry
+   */
+  public synchronized void remove(Object key) {
+    String[] tags = keyTags.remove(key);
+    if (tags != null) {
+      unlink(key, tags);
+    }
+  }
+
+  /**
+   * Forgets all the entries, when the base cache is cleared.
+   */
+  public synchronized void clear() {
+    keyTags.clear();
+    taggedKeys.clear();
+  }
+
+  /**
+   * @return the number of indexed entries
+   */
+  public synchronized int size() {
+    return keyTags.size();
+  }
+
+  private void collectKeys(String tag, List<Object> keys) {
+    Set<Object> tagged = taggedKeys.get(tag);
+    if (tagged != null) {
+      keys.addAll(tagged);
+    }
+  }
+
+  private void unlink(Object key, String[] tags) {
+    for (String tag : tags) {
+      Set<Object> tagged = taggedKeys.get(tag);
+      if (tagged != null && tagged.remove(key) && tagged.isEmpty()) {
+        taggedKeys.remove(tag);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,84 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Maximum weight shared by all the weighted caches of a configuration.
+ * <p>
+ * Each cache only ever evicts its own entries, so the budget is enforced by the caches that weigh more than their
+ * fair share whenever they add an entry. It may therefore be exceeded until one of them is written to.
+ *
+ * @see WeightedCache
+ * @see org.apache.ibatis.session.Configuration#setCacheMaxWeight(long)
+ * @since 3.5.2
+ */
+public class CacheWeightBudget {
+
+  private final AtomicLong weight = new AtomicLong();
+  private final AtomicInteger caches = new AtomicInteger();
+  private volatile long maxWeight;
+
+  /**
+   * @param maxWeight the maximum weight, 0 or less for no limit
+   */
+  public CacheWeightBudget(long maxWeight) {
+    this.maxWeight = maxWeight;
+  }
+
+  public long getMaxWeight() {
+    return maxWeight;
+  }
+
+  public void setMaxWeight(long maxWeight) {
+    this.maxWeight = maxWeight;
+  }
+
+  /**
+   * @return the weight of all the entries currently held by the caches sharing this budget
+   */
+  public long getWeight() {
+    return weight.get();
+  }
+
+  public boolean isExceeded() {
+    long max = maxWeight;
+    return max > 0 && weight.get() > max;
+  }
+
+  /**
+   * @return the weight each cache sharing this budget is entitled to when the budget is exceeded
+   */
+  public long getFairShare() {
+    long max = maxWeight;
+    return max > 0 ? max / Math.max(caches.get(), 1) : Long.MAX_VALUE;
+  }
+
+  void register() {
+    caches.incrementAndGet();
+  }
+
+  void unregister() {
+    caches.decrementAndGet();
+  }
+
+  void add(long delta) {
+    weight.addAndGet(delta);
+  }
+
+}
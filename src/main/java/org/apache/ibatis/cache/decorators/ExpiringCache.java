@@ -0,0 +1,215 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStats;
+import org.apache.ibatis.cache.CacheStats.EvictionCause;
+
+/**
+ * Cache decorator that expires each entry on its own once its time to live has elapsed.
+ * <p>
+ * Unlike {@link ScheduledCache}, which clears the whole cache at once, the entries expire at the pace at which they
+ * were added, optionally spread further by a random {@link #setJitter(long) jitter}. With
+ * {@link #setRefreshAhead(long) refreshAhead}, a single caller reading an entry that is about to expire gets a miss,
+ * so that it reloads the entry from the database while the other callers are still served the current value.
+ *
+ * @since 3.5.2
+ */
+public class ExpiringCache implements Cache {
+
+  private final Cache delegate;
+  private final Map<Object, Expiry> expiries = new ConcurrentHashMap<>();
+  private long timeToLive;
+  private long jitter;
+  private long refreshAhead;
+  private volatile long nextSweep;
+  private CacheStats stats;
+
+  public ExpiringCache(Cache delegate) {
+    this.delegate = delegate;
+    this.timeToLive = 60 * 60 * 1000; // 1 hour
+    this.nextSweep = System.currentTimeMillis() + timeToLive;
+  }
+
+  public long getTimeToLive() {
+    return timeToLive;
+  }
+
+  /**
+   * @param timeToLive the time in milliseconds after which an entry expires
+   */
+  public void setTimeToLive(long timeToLive) {
+    this.timeToLive = timeToLive;
+    this.nextSweep = System.currentTimeMillis() + timeToLive;
+  }
+
+  /**
+   * @param stats the statistics to record the evictions in
+   * @since 3.5.2
+   */
+  public void setStats(CacheStats stats) {
+    this.stats = stats;
+  }
+
+  public long getJitter() {
+    return jitter;
+  }
+
+  /**
+   * @param jitter the maximum random time in milliseconds by which the time to live of an entry is shortened, so that
+   *          entries added together do not expire together
+   */
+  public void setJitter(long jitter) {
+    this.jitter = jitter;
+  }
+
+  public long getRefreshAhead() {
+    return refreshAhead;
+  }
+
+  /**
+   * @param refreshAhead the time in milliseconds before the expiry of an entry during which it is reloaded by the
+   *          next caller reading it, 0 to disable
+   */
+  public void setRefreshAhead(long refreshAhead) {
+    this.refreshAhead = refreshAhead;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    sweepWhenDue(System.currentTimeMillis());
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object object) {
+    long now = System.currentTimeMillis();
+    sweepWhenDue(now);
+    long expiresAt = now + timeToLive;
+    long maxJitter = Math.min(jitter, timeToLive);
+    if (maxJitter > 0) {
+      expiresAt -= ThreadLocalRandom.current().nextLong(maxJitter + 1);
+    }
+    delegate.putObject(key, object);
+    expiries.put(key, new Expiry(expiresAt, refreshAhead > 0 ? expiresAt - refreshAhead : expiresAt));
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Expiry expiry = expiries.get(key);
+    if (expiry != null) {
+      long now = System.currentTimeMillis();
+      if (now >= expiry.expiresAt) {
+        expire(key, expiry);
+        return null;
+      }
+      if (expiry.claimRefresh(now)) {
+        return null;
+      }
+    }
+    return delegate.getObject(key);
+  }
+
+  @Override
+  public Object peekObject(Object key) {
+    Expiry expiry = expiries.get(key);
+    if (expiry != null && System.currentTimeMillis() >= expiry.expiresAt) {
+      return null;
+    }
+    return delegate.peekObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    expiries.remove(key);
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+    expiries.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+  private void expire(Object key, Expiry expiry) {
+    if (expiries.remove(key, expiry) && delegate.removeObject(key) != null && stats != null) {
+      stats.recordEviction(EvictionCause.EXPIRED);
+    }
+  }
+
+  /**
+   * Removes the expired entries that were not read since they expired, including the ones an eviction decorator
+   * already removed from the delegate.
+   */
+  private void sweepWhenDue(long now) {
+    if (now < nextSweep) {
+      return;
+    }
+    nextSweep = now + timeToLive;
+    for (Map.Entry<Object, Expiry> entry : expiries.entrySet()) {
+      if (now >= entry.getValue().expiresAt) {
+        expire(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  private static class Expiry {
+    private final long expiresAt;
+    private final AtomicLong refreshAt;
+
+    Expiry(long expiresAt, long refreshAt) {
+      this.expiresAt = expiresAt;
+      this.refreshAt = new AtomicLong(refreshAt);
+    }
+
+    /**
+     * Elects at most one caller to reload the entry at a time. Another caller is elected halfway to the expiry if the
+     * reloaded entry was not put back by then, e.g. because its transaction was rolled back.
+     */
+    boolean claimRefresh(long now) {
+      long at = refreshAt.get();
+      return now >= at && refreshAt.compareAndSet(at, now + Math.max((expiresAt - now) / 2, 1));
+    }
+  }
+
+}
@@ -20,6 +20,8 @@ import java.util.LinkedList;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStats;
+import org.apache.ibatis.cache.CacheStats.EvictionCause;
 
 /**
  * FIFO (first in, first out) cache decorator.
@@ -31,6 +33,7 @@ public class FifoCache implements Cache {
   private final Cache delegate;
   private final Deque<Object> keyList;
   private int size;
+  private CacheStats stats;
 
   public FifoCache(Cache delegate) {
     this.delegate = delegate;
@@ -52,6 +55,14 @@ public class FifoCache implements Cache {
     this.size = size;
   }
 
+  /**
+   * @param stats the statistics to record the evictions in
+   * @since 3.5.2
+   */
+  public void setStats(CacheStats stats) {
+    this.stats = stats;
+  }
+
   @Override
   public void putObject(Object key, Object value) {
     cycleKeyList(key);
@@ -63,6 +74,11 @@ public class FifoCache implements Cache {
     return delegate.getObject(key);
   }
 
+  @Override
+  public Object peekObject(Object key) {
+    return delegate.peekObject(key);
+  }
+
   @Override
   public Object removeObject(Object key) {
     return delegate.removeObject(key);
@@ -84,6 +100,9 @@ public class FifoCache implements Cache {
     if (keyList.size() > size) {
       Object oldestKey = keyList.removeFirst();
       delegate.removeObject(oldestKey);
+      if (stats != null) {
+        stats.recordEviction(EvictionCause.SIZE);
+      }
     }
   }
 
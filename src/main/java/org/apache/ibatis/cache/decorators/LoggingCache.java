@@ -18,6 +18,8 @@ package org.apache.ibatis.cache.decorators;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStats;
+import org.apache.ibatis.cache.CacheStats.EvictionCause;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 
@@ -28,11 +30,20 @@ public class LoggingCache implements Cache {
 
   private final Log log;
   private final Cache delegate;
-  protected int requests = 0;
-  protected int hits = 0;
+  private final CacheStats stats;
 
   public LoggingCache(Cache delegate) {
+    this(delegate, new CacheStats(delegate::getSize));
+  }
+
+  /**
+   * @param delegate the decorated cache
+   * @param stats the statistics to record the lookups in, shared with the decorators that evict entries
+   * @since 3.5.2
+   */
+  public LoggingCache(Cache delegate, CacheStats stats) {
     this.delegate = delegate;
+    this.stats = stats;
     this.log = LogFactory.getLog(getId());
   }
 
@@ -49,29 +60,41 @@ public class LoggingCache implements Cache {
   @Override
   public void putObject(Object key, Object object) {
     delegate.putObject(key, object);
+    stats.recordPut();
   }
 
   @Override
   public Object getObject(Object key) {
-    requests++;
     final Object value = delegate.getObject(key);
     if (value != null) {
-      hits++;
+      stats.recordHit();
+    } else {
+      stats.recordMiss();
     }
     if (log.isDebugEnabled()) {
-      log.debug("Cache Hit Ratio [" + getId() + "]: " + getHitRatio());
+      log.debug("Cache Hit Ratio [" + getId() + "]: " + stats.getHitRatio());
     }
     return value;
   }
 
+  @Override
+  public Object peekObject(Object key) {
+    return delegate.peekObject(key);
+  }
+
   @Override
   public Object removeObject(Object key) {
-    return delegate.removeObject(key);
+    Object removed = delegate.removeObject(key);
+    if (removed != null) {
+      stats.recordEviction(EvictionCause.REMOVED);
+    }
+    return removed;
   }
 
   @Override
   public void clear() {
     delegate.clear();
+    stats.recordClear();
   }
 
   @Override
@@ -79,6 +102,11 @@ public class LoggingCache implements Cache {
     return null;
   }
 
+  @Override
+  public CacheStats getStats() {
+    return stats;
+  }
+
   @Override
   public int hashCode() {
     return delegate.hashCode();
@@ -89,8 +117,4 @@ public class LoggingCache implements Cache {
     return delegate.equals(obj);
   }
 
-  private double getHitRatio() {
-    return (double) hits / (double) requests;
-  }
-
 }
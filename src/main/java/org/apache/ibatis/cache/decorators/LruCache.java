@@ -20,6 +20,8 @@ import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStats;
+import org.apache.ibatis.cache.CacheStats.EvictionCause;
 
 /**
  * Lru (least recently used) cache decorator.
@@ -31,6 +33,7 @@ public class LruCache implements Cache {
   private final Cache delegate;
   private Map<Object, Object> keyMap;
   private Object eldestKey;
+  private CacheStats stats;
 
   public LruCache(Cache delegate) {
     this.delegate = delegate;
@@ -62,6 +65,14 @@ public class LruCache implements Cache {
     };
   }
 
+  /**
+   * @param stats the statistics to record the evictions in
+   * @since 3.5.2
+   */
+  public void setStats(CacheStats stats) {
+    this.stats = stats;
+  }
+
   @Override
   public void putObject(Object key, Object value) {
     delegate.putObject(key, value);
@@ -74,6 +85,11 @@ public class LruCache implements Cache {
     return delegate.getObject(key);
   }
 
+  @Override
+  public Object peekObject(Object key) {
+    return delegate.peekObject(key);
+  }
+
   @Override
   public Object removeObject(Object key) {
     return delegate.removeObject(key);
@@ -95,6 +111,9 @@ public class LruCache implements Cache {
     if (eldestKey != null) {
       delegate.removeObject(eldestKey);
       eldestKey = null;
+      if (stats != null) {
+        stats.recordEviction(EvictionCause.SIZE);
+      }
     }
   }
 
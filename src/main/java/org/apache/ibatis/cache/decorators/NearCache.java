@@ -0,0 +1,181 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.io.Serializable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.impl.ConcurrentCache;
+
+/**
+ * Two-tier cache decorator that keeps the entries most recently read from a shared, typically remote, cache in a
+ * small on-heap {@link ConcurrentCache}.
+ * <p>
+ * The delegate stays authoritative. Every flush, and every removal of an entry the delegate held, writes a new version
+ * stamp to the delegate, and each node drops its whole on-heap tier once it sees a stamp it does not know. Removing a
+ * key the delegate does not hold, such as releasing the lock of an entry missed by a rolled back transaction, only
+ * drops that key from the on-heap tier of this node. The stamp is read from the delegate at most once
+ * per check interval, so the entries changed by another node may be served for up to that interval, unless the
+ * change is also broadcast by a {@link org.apache.ibatis.cache.CacheInvalidationBus}.
+ * <p>
+ * Both tiers return the same instances, so the delegate is expected to be read-only or to be wrapped in a
+ * {@link SerializedCache}.
+ *
+ * @since 3.5.2
+ */
+public class NearCache implements Cache {
+
+  private static final Object VERSION_KEY = new VersionKey();
+
+  private final Cache delegate;
+  private final ConcurrentCache near;
+  private final AtomicLong generation = new AtomicLong();
+  private volatile long checkInterval = TimeUnit.SECONDS.toNanos(1);
+  private volatile long nextCheck;
+  private volatile Object version;
+
+  public NearCache(Cache delegate) {
+    this.delegate = delegate;
+    this.near = new ConcurrentCache(delegate.getId());
+    this.nextCheck = System.nanoTime();
+  }
+
+  /**
+   * @param nearCacheSize the maximum number of entries of the on-heap tier, 1024 by default
+   */
+  public void setNearCacheSize(int nearCacheSize) {
+    near.setSize(nearCacheSize);
+  }
+
+  /**
+   * @param nearCacheCheckInterval the interval in milliseconds between two reads of the version stamp, 1000 by
+   *          default. 0 reads it on every access.
+   */
+  public void setNearCacheCheckInterval(long nearCacheCheckInterval) {
+    this.checkInterval = TimeUnit.MILLISECONDS.toNanos(nearCacheCheckInterval);
+    this.nextCheck = System.nanoTime();
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, value);
+    if (value != null) {
+      near.putObject(key, value);
+    } else {
+      near.removeObject(key);
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    checkVersion();
+    Object value = near.getObject(key);
+    if (value != null) {
+      return value;
+    }
+    long loadedGeneration = generation.get();
+    value = delegate.getObject(key);
+    if (value != null) {
+      near.putObject(key, value);
+      if (generation.get() != loadedGeneration) {
+        // invalidated while reading the delegate, the value may be stale
+        near.removeObject(key);
+      }
+    }
+    return value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    generation.incrementAndGet();
+    near.removeObject(key);
+    Object removed = delegate.removeObject(key);
+    if (removed != null) {
+      // the other nodes may hold a copy of the entry
+      stamp();
+    }
+    return removed;
+  }
+
+  @Override
+  public void clear() {
+    generation.incrementAndGet();
+    near.clear();
+    delegate.clear();
+    stamp();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  private void checkVersion() {
+    long now = System.nanoTime();
+    if (now - nextCheck < 0) {
+      return;
+    }
+    nextCheck = now + checkInterval;
+    Object current = delegate.getObject(VERSION_KEY);
+    if (current == null ? version != null : !current.equals(version)) {
+      generation.incrementAndGet();
+      near.clear();
+      version = current;
+    }
+  }
+
+  private void stamp() {
+    // random rather than incremented, so that concurrent writers on different nodes never write the same stamp.
+    // The known version is left as is, so that a stamp written meanwhile by another node is not missed.
+    delegate.putObject(VERSION_KEY, ThreadLocalRandom.current().nextLong());
+  }
+
+  private static final class VersionKey implements Serializable {
+
+    private static final long serialVersionUID = -6180469284616734421L;
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof VersionKey;
+    }
+
+    @Override
+    public int hashCode() {
+      return VersionKey.class.getName().hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return "mybatis-near-cache-version";
+    }
+
+  }
+
+}
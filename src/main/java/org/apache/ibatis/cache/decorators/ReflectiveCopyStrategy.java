@@ -0,0 +1,265 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.MonthDay;
+import java.time.OffsetDateTime;
+import java.time.OffsetTime;
+import java.time.Period;
+import java.time.Year;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.ibatis.cache.CacheCopyStrategy;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.executor.loader.WriteReplaceInterface;
+
+/**
+ * Copy strategy that clones the cached object graphs field by field instead of serializing them.
+ * <p>
+ * The fields of each class are looked up once and reused for every copy. Immutable values such as strings, numbers,
+ * enums and {@code java.time} values are shared rather than copied, and shared references and cycles within a graph
+ * are preserved. Objects this strategy cannot clone, such as lazy loading proxies or JDK classes without a public
+ * no-argument constructor, are copied through Java serialization instead.
+ *
+ * @since 3.5.2
+ */
+public class ReflectiveCopyStrategy implements CacheCopyStrategy {
+
+  private static final Set<Class<?>> IMMUTABLE_TYPES = new HashSet<>(Arrays.asList(
+      String.class, Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class, Float.class,
+      Double.class, BigInteger.class, BigDecimal.class, Class.class, UUID.class, Locale.class, Duration.class,
+      Instant.class, LocalDate.class, LocalDateTime.class, LocalTime.class, MonthDay.class, OffsetDateTime.class,
+      OffsetTime.class, Period.class, Year.class, YearMonth.class, ZonedDateTime.class));
+
+  private static final Copier IDENTITY = (original, copies) -> original;
+
+  private final Map<Class<?>, Copier> copiers = new ConcurrentHashMap<>();
+
+  @Override
+  public Object copyToCache(Object value) {
+    return copy(value, new IdentityHashMap<>());
+  }
+
+  @Override
+  public Object copyFromCache(Object cached) {
+    return copy(cached, new IdentityHashMap<>());
+  }
+
+  private Object copy(Object original, Map<Object, Object> copies) {
+    if (original == null) {
+      return null;
+    }
+    Copier copier = copiers.computeIfAbsent(original.getClass(), this::createCopier);
+    if (copier == IDENTITY) {
+      return original;
+    }
+    Object copy = copies.get(original);
+    return copy != null ? copy : copier.copy(original, copies);
+  }
+
+  private Copier createCopier(Class<?> type) {
+    if (IMMUTABLE_TYPES.contains(type) || type.isEnum() || Enum.class.isAssignableFrom(type)
+        || ZoneId.class.isAssignableFrom(type)) {
+      return IDENTITY;
+    }
+    if (type.isArray()) {
+      return type.getComponentType().isPrimitive() ? this::copyPrimitiveArray : this::copyArray;
+    }
+    if (WriteReplaceInterface.class.isAssignableFrom(type)) {
+      // lazy loading proxies know how to serialize themselves, not how to be cloned
+      return this::serialize;
+    }
+    if (Date.class.isAssignableFrom(type) || Calendar.class.isAssignableFrom(type)) {
+      return this::copyCloneable;
+    }
+    if (Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type)) {
+      Constructor<?> constructor = getPublicConstructor(type);
+      boolean sorted = SortedSet.class.isAssignableFrom(type) || SortedMap.class.isAssignableFrom(type);
+      if (constructor != null && !sorted) {
+        return Collection.class.isAssignableFrom(type) ? collectionCopier(constructor) : mapCopier(constructor);
+      }
+      return this::serialize;
+    }
+    if (isJdkType(type)) {
+      return this::serialize;
+    }
+    return beanCopier(type);
+  }
+
+  private Object copyPrimitiveArray(Object original, Map<Object, Object> copies) {
+    int length = Array.getLength(original);
+    Object copy = Array.newInstance(original.getClass().getComponentType(), length);
+    System.arraycopy(original, 0, copy, 0, length);
+    copies.put(original, copy);
+    return copy;
+  }
+
+  private Object copyArray(Object original, Map<Object, Object> copies) {
+    Object[] array = (Object[]) original;
+    Object[] copy = (Object[]) Array.newInstance(original.getClass().getComponentType(), array.length);
+    copies.put(original, copy);
+    for (int i = 0; i < array.length; i++) {
+      copy[i] = copy(array[i], copies);
+    }
+    return copy;
+  }
+
+  private Object copyCloneable(Object original, Map<Object, Object> copies) {
+    Object copy = original instanceof Date ? ((Date) original).clone() : ((Calendar) original).clone();
+    copies.put(original, copy);
+    return copy;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Copier collectionCopier(Constructor<?> constructor) {
+    return (original, copies) -> {
+      Collection<Object> copy = (Collection<Object>) newInstance(constructor);
+      copies.put(original, copy);
+      for (Object element : (Collection<?>) original) {
+        copy.add(copy(element, copies));
+      }
+      return copy;
+    };
+  }
+
+  @SuppressWarnings("unchecked")
+  private Copier mapCopier(Constructor<?> constructor) {
+    return (original, copies) -> {
+      Map<Object, Object> copy = (Map<Object, Object>) newInstance(constructor);
+      copies.put(original, copy);
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) original).entrySet()) {
+        copy.put(copy(entry.getKey(), copies), copy(entry.getValue(), copies));
+      }
+      return copy;
+    };
+  }
+
+  private Copier beanCopier(Class<?> type) {
+    Constructor<?> constructor;
+    try {
+      constructor = type.getDeclaredConstructor();
+      constructor.setAccessible(true);
+    } catch (Exception e) {
+      return this::serialize;
+    }
+    List<Field> fields = new ArrayList<>();
+    for (Class<?> current = type; current != Object.class; current = current.getSuperclass()) {
+      if (isJdkType(current)) {
+        return this::serialize;
+      }
+      for (Field field : current.getDeclaredFields()) {
+        if (!Modifier.isStatic(field.getModifiers())) {
+          field.setAccessible(true);
+          fields.add(field);
+        }
+      }
+    }
+    Field[] instanceFields = fields.toArray(new Field[0]);
+    return (original, copies) -> {
+      Object copy = newInstance(constructor);
+      copies.put(original, copy);
+      try {
+        for (Field field : instanceFields) {
+          Object value = field.get(original);
+          field.set(copy, field.getType().isPrimitive() ? value : copy(value, copies));
+        }
+      } catch (IllegalAccessException e) {
+        throw new CacheException("Error copying object of type " + type.getName() + ".  Cause: " + e, e);
+      }
+      return copy;
+    };
+  }
+
+  private Object serialize(Object original, Map<Object, Object> copies) {
+    if (!(original instanceof Serializable)) {
+      throw new CacheException("ReflectiveCopyStrategy failed to make a copy of a non-serializable object: " + original);
+    }
+    Object copy;
+    try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
+         ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+      oos.writeObject(original);
+      oos.flush();
+      try (ObjectInputStream ois = new SerializedCache.CustomObjectInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+        copy = ois.readObject();
+      }
+    } catch (Exception e) {
+      throw new CacheException("Error copying object through serialization.  Cause: " + e, e);
+    }
+    copies.put(original, copy);
+    return copy;
+  }
+
+  private static Constructor<?> getPublicConstructor(Class<?> type) {
+    try {
+      return Modifier.isPublic(type.getModifiers()) ? type.getConstructor() : null;
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  private static Object newInstance(Constructor<?> constructor) {
+    try {
+      return constructor.newInstance();
+    } catch (Exception e) {
+      throw new CacheException("Error instantiating " + constructor.getDeclaringClass().getName() + ".  Cause: " + e, e);
+    }
+  }
+
+  private static boolean isJdkType(Class<?> type) {
+    String name = type.getName();
+    return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.")
+        || name.startsWith("com.sun.") || name.startsWith("jdk.");
+  }
+
+  @FunctionalInterface
+  private interface Copier {
+    Object copy(Object original, Map<Object, Object> copies);
+  }
+
+}
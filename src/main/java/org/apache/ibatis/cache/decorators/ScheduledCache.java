@@ -60,6 +60,11 @@ public class ScheduledCache implements Cache {
     return clearWhenStale() ? null : delegate.getObject(key);
   }
 
+  @Override
+  public Object peekObject(Object key) {
+    return System.currentTimeMillis() - lastClear > clearInterval ? null : delegate.peekObject(key);
+  }
+
   @Override
   public Object removeObject(Object key) {
     clearWhenStale();
@@ -26,20 +26,48 @@ import java.io.Serializable;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheCopyStrategy;
 import org.apache.ibatis.cache.CacheException;
 import org.apache.ibatis.io.Resources;
 
 /**
+ * Read/write cache decorator that stores and returns copies of the cached objects.
+ * <p>
+ * The copies are made with Java serialization unless another {@link CacheCopyStrategy} is set.
+ *
  * @author Clinton Begin
  */
 public class SerializedCache implements Cache {
 
   private final Cache delegate;
+  private CacheCopyStrategy copyStrategy;
 
   public SerializedCache(Cache delegate) {
     this.delegate = delegate;
   }
 
+  /**
+   * @param copyStrategy the strategy making the copies, or null to use Java serialization
+   * @since 3.5.2
+   */
+  public void setCopyStrategy(CacheCopyStrategy copyStrategy) {
+    this.copyStrategy = copyStrategy;
+  }
+
+  /**
+   * Sets the copy strategy from its class name, so that it can be configured with a cache property.
+   *
+   * @param copyStrategyClass the fully qualified name of a {@link CacheCopyStrategy} implementation
+   * @since 3.5.2
+   */
+  public void setCopyStrategyClass(String copyStrategyClass) {
+    try {
+      setCopyStrategy((CacheCopyStrategy) Resources.classForName(copyStrategyClass).getDeclaredConstructor().newInstance());
+    } catch (Exception e) {
+      throw new CacheException("Error instantiating cache copy strategy " + copyStrategyClass + ".  Cause: " + e, e);
+    }
+  }
+
   @Override
   public String getId() {
     return delegate.getId();
@@ -52,6 +80,10 @@ public class SerializedCache implements Cache {
 
   @Override
   public void putObject(Object key, Object object) {
+    if (copyStrategy != null) {
+      delegate.putObject(key, object == null ? null : copyStrategy.copyToCache(object));
+      return;
+    }
     if (object == null || object instanceof Serializable) {
       delegate.putObject(key, serialize((Serializable) object));
     } else {
@@ -62,7 +94,19 @@ public class SerializedCache implements Cache {
   @Override
   public Object getObject(Object key) {
     Object object = delegate.getObject(key);
-    return object == null ? null : deserialize((byte[]) object);
+    if (object == null) {
+      return null;
+    }
+    return copyStrategy != null ? copyStrategy.copyFromCache(object) : deserialize((byte[]) object);
+  }
+
+  @Override
+  public Object peekObject(Object key) {
+    Object object = delegate.peekObject(key);
+    if (object == null) {
+      return null;
+    }
+    return copyStrategy != null ? copyStrategy.copyFromCache(object) : deserialize((byte[]) object);
   }
 
   @Override
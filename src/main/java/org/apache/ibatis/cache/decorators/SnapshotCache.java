@@ -0,0 +1,518 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.builder.InitializingObject;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Cache decorator that periodically writes the entries of the cache to a local file, and loads them back when the
+ * cache is built so that a restarted application starts with a warm cache.
+ * <p>
+ * The entries are copied when a snapshot is due, on the thread accessing the cache, and written to a temporary file
+ * by a background thread before replacing the previous snapshot. A snapshot is only loaded back if it was written
+ * for the same mapper, as identified by the {@link #setMapperHash(String) mapperHash}, and for the same database, as
+ * identified by the {@link #setEnvironmentId(String) environmentId} and {@link #setDataSourceUrl(String)
+ * dataSourceUrl}. It is deleted as soon as an entry is removed or the cache is flushed, so that a restart never loads
+ * entries invalidated since.
+ * <p>
+ * Loading a snapshot deserializes its content, so the {@link #setSnapshotDirectory(String) snapshotDirectory} must be
+ * set explicitly to a directory of the application. Where the file system supports POSIX permissions, the directory
+ * and the files are created readable and writable by their owner only, and a directory or a file writable by other
+ * users is neither loaded nor written.
+ * <p>
+ * The file holds a header (magic number, format version, mapper hash, database digest and entry count) followed by
+ * the length prefixed serialized keys and values. Values already serialized by a {@link SerializedCache} are written
+ * as is. Entries whose key or value is not serializable are not written, nor are the entries of a delegate that
+ * cannot {@link Cache#peekObject(Object) peek} at them.
+ * <p>
+ * This decorator is not thread safe, it must be wrapped in a {@link SynchronizedCache}.
+ *
+ * @since 3.5.2
+ */
+public class SnapshotCache implements Cache, InitializingObject {
+
+  private static final Log log = LogFactory.getLog(SnapshotCache.class);
+
+  private static final int MAGIC = 0x4d425353;
+  private static final int FORMAT_VERSION = 2;
+  private static final byte SERIALIZED = 0;
+  private static final byte BYTES = 1;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int PRUNE_SLACK = 1024;
+  private static final Set<PosixFilePermission> OWNER_ONLY_DIRECTORY = PosixFilePermissions.fromString("rwx------");
+  private static final Set<PosixFilePermission> OWNER_ONLY_FILE = PosixFilePermissions.fromString("rw-------");
+
+  private final Cache delegate;
+  private final Set<Object> keys = new HashSet<>();
+  private long snapshotInterval;
+  private String snapshotDirectory;
+  private String mapperHash;
+  private String environmentId;
+  private String dataSourceUrl;
+  private long nextSnapshot;
+
+  public SnapshotCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  public long getSnapshotInterval() {
+    return snapshotInterval;
+  }
+
+  /**
+   * @param snapshotInterval the interval in milliseconds between two snapshots, 0 or less to never write any
+   */
+  public void setSnapshotInterval(long snapshotInterval) {
+    this.snapshotInterval = snapshotInterval;
+    this.nextSnapshot = System.currentTimeMillis() + snapshotInterval;
+  }
+
+  public String getSnapshotDirectory() {
+    return snapshotDirectory;
+  }
+
+  /**
+   * @param snapshotDirectory the directory of the snapshot files, which must not be shared with other users.
+   *          Snapshots are neither written nor loaded without it.
+   */
+  public void setSnapshotDirectory(String snapshotDirectory) {
+    this.snapshotDirectory = snapshotDirectory;
+  }
+
+  public String getMapperHash() {
+    return mapperHash;
+  }
+
+  /**
+   * @param mapperHash the hash of the mapper declaring the cache, computed from the mapper XML file by default.
+   *          Snapshots are neither written nor loaded without it.
+   */
+  public void setMapperHash(String mapperHash) {
+    this.mapperHash = mapperHash;
+  }
+
+  public String getEnvironmentId() {
+    return environmentId;
+  }
+
+  /**
+   * @param environmentId the id of the environment of the configuration declaring the cache
+   */
+  public void setEnvironmentId(String environmentId) {
+    this.environmentId = environmentId;
+  }
+
+  public String getDataSourceUrl() {
+    return dataSourceUrl;
+  }
+
+  /**
+   * @param dataSourceUrl the url of the data source the entries are loaded from. Only its digest is written, so
+   *          that credentials in the url do not end up in the snapshot.
+   */
+  public void setDataSourceUrl(String dataSourceUrl) {
+    this.dataSourceUrl = dataSourceUrl;
+  }
+
+  @Override
+  public void initialize() {
+    if (snapshotDirectory == null || snapshotDirectory.isEmpty()) {
+      throw new CacheException("Cache snapshots of '" + getId() + "' require a snapshotDirectory property.");
+    }
+  }
+
+  /**
+   * @return the snapshot file of this cache, which is specific to its database
+   */
+  public Path getSnapshotFile() {
+    return Paths.get(snapshotDirectory,
+        getId().replaceAll("[^A-Za-z0-9._-]", "_") + "." + databaseDigest().substring(0, 16) + ".snapshot");
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, value);
+    if (value != null) {
+      keys.add(key);
+      if (keys.size() > 2 * delegate.getSize() + PRUNE_SLACK) {
+        // forgets the keys evicted by the decorators under this one
+        copyEntries();
+      }
+    }
+    snapshotWhenDue();
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Object value = delegate.getObject(key);
+    snapshotWhenDue();
+    return value;
+  }
+
+  @Override
+  public Object peekObject(Object key) {
+    return delegate.peekObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    if (keys.remove(key)) {
+      deleteSnapshot();
+    }
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    keys.clear();
+    delegate.clear();
+    deleteSnapshot();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  /**
+   * Writes a snapshot of the entries of this cache now, in the background.
+   *
+   * @return the completion of the write
+   */
+  public Future<?> snapshot() {
+    if (mapperHash == null || snapshotDirectory == null) {
+      return CompletableFuture.completedFuture(null);
+    }
+    List<Object[]> entries = copyEntries();
+    String hash = mapperHash;
+    String database = databaseDigest();
+    Path file = getSnapshotFile();
+    return ExecutorHolder.EXECUTOR.submit(() -> write(file, hash, database, entries));
+  }
+
+  /**
+   * Loads the snapshot of this cache, if there is one written for the same mapper and database.
+   *
+   * @return the number of entries loaded
+   */
+  public int load() {
+    if (mapperHash == null || snapshotDirectory == null) {
+      return 0;
+    }
+    Path file = getSnapshotFile();
+    if (!Files.isRegularFile(file)) {
+      return 0;
+    }
+    int loaded = 0;
+    try {
+      checkNotShared(file.getParent());
+      checkNotShared(file);
+    } catch (Exception e) {
+      log.warn("Ignoring the cache snapshot " + file + ".  Cause: " + e);
+      return 0;
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new CacheException("Snapshot too large: " + channel.size() + " bytes");
+      }
+      ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+      while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+        // read fully
+      }
+      buffer.flip();
+      if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION
+          || !mapperHash.equals(new String(readBytes(buffer), StandardCharsets.UTF_8))
+          || !databaseDigest().equals(new String(readBytes(buffer), StandardCharsets.UTF_8))) {
+        log.debug("Ignoring the outdated cache snapshot " + file);
+        return 0;
+      }
+      int count = buffer.getInt();
+      for (int i = 0; i < count; i++) {
+        Object key = deserialize(readBytes(buffer));
+        byte type = buffer.get();
+        byte[] value = readBytes(buffer);
+        delegate.putObject(key, type == BYTES ? value : deserialize(value));
+        keys.add(key);
+        loaded++;
+      }
+    } catch (Exception e) {
+      // a partially loaded snapshot cannot be trusted
+      log.warn("Error loading the cache snapshot " + file + ".  Cause: " + e);
+      keys.clear();
+      delegate.clear();
+      return 0;
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Loaded " + loaded + " entries from the cache snapshot " + file);
+    }
+    return loaded;
+  }
+
+  private void snapshotWhenDue() {
+    if (snapshotInterval <= 0) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    if (now >= nextSnapshot) {
+      nextSnapshot = now + snapshotInterval;
+      snapshot();
+    }
+  }
+
+  /**
+   * Copies the entries still held by the delegate, and forgets the keys it evicted. The entries are peeked at, so that
+   * copying them neither promotes them in the eviction order nor claims their refresh.
+   */
+  private List<Object[]> copyEntries() {
+    List<Object[]> entries = new ArrayList<>(keys.size());
+    Iterator<Object> iterator = keys.iterator();
+    while (iterator.hasNext()) {
+      Object key = iterator.next();
+      Object value = delegate.peekObject(key);
+      if (value == null) {
+        iterator.remove();
+      } else {
+        entries.add(new Object[] {key, value});
+      }
+    }
+    return entries;
+  }
+
+  private void deleteSnapshot() {
+    if (mapperHash != null && snapshotDirectory != null) {
+      Path file = getSnapshotFile();
+      // on the same thread as the writes, so that a snapshot being written is deleted too
+      ExecutorHolder.EXECUTOR.execute(() -> {
+        try {
+          Files.deleteIfExists(file);
+        } catch (IOException e) {
+          log.warn("Error deleting the cache snapshot " + file + ".  Cause: " + e);
+        }
+      });
+    }
+  }
+
+  /**
+   * The database is identified by a digest rather than by its url, which may hold credentials.
+   */
+  private String databaseDigest() {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(String.valueOf(environmentId).getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      digest.update(String.valueOf(dataSourceUrl).getBytes(StandardCharsets.UTF_8));
+      StringBuilder hex = new StringBuilder();
+      for (byte b : digest.digest()) {
+        hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new CacheException("Error hashing the database of the cache snapshot.  Cause: " + e, e);
+    }
+  }
+
+  private static void write(Path file, String hash, String database, List<Object[]> entries) {
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    try {
+      Path directory = file.getParent();
+      if (isPosix(directory)) {
+        Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(OWNER_ONLY_DIRECTORY));
+      } else {
+        Files.createDirectories(directory);
+      }
+      checkNotShared(directory);
+      // created anew, so that it never keeps the permissions of a file left behind
+      Files.deleteIfExists(temp);
+      Set<StandardOpenOption> options = EnumSet.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+      FileAttribute<?>[] attributes = isPosix(directory)
+          ? new FileAttribute<?>[] {PosixFilePermissions.asFileAttribute(OWNER_ONLY_FILE)}
+          : new FileAttribute<?>[0];
+      try (FileChannel channel = FileChannel.open(temp, options, attributes)) {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        byte[] hashBytes = hash.getBytes(StandardCharsets.UTF_8);
+        byte[] databaseBytes = database.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(hashBytes.length).put(hashBytes)
+            .putInt(databaseBytes.length).put(databaseBytes);
+        int countPosition = buffer.position();
+        buffer.putInt(0);
+        int count = 0;
+        for (Object[] entry : entries) {
+          byte[] key = serialize(entry[0]);
+          boolean bytes = entry[1] instanceof byte[];
+          byte[] value = bytes ? (byte[]) entry[1] : serialize(entry[1]);
+          if (key == null || value == null) {
+            continue;
+          }
+          buffer = writeBytes(channel, buffer, key);
+          buffer = ensureRemaining(channel, buffer, 1);
+          buffer.put(bytes ? BYTES : SERIALIZED);
+          buffer = writeBytes(channel, buffer, value);
+          count++;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        ByteBuffer countBuffer = ByteBuffer.allocate(4).putInt(count);
+        countBuffer.flip();
+        channel.write(countBuffer, countPosition);
+        channel.force(false);
+      }
+      try {
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (Exception e) {
+      log.warn("Error writing the cache snapshot " + file + ".  Cause: " + e);
+    }
+  }
+
+  private static boolean isPosix(Path path) {
+    return path.getFileSystem().supportedFileAttributeViews().contains("posix");
+  }
+
+  /**
+   * A snapshot is deserialized when loaded, so it must not be replaceable by other users.
+   */
+  private static void checkNotShared(Path path) throws IOException {
+    if (isPosix(path)) {
+      Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(path);
+      if (permissions.contains(PosixFilePermission.GROUP_WRITE)
+          || permissions.contains(PosixFilePermission.OTHERS_WRITE)) {
+        throw new CacheException("The cache snapshot path " + path + " is writable by other users.");
+      }
+    }
+  }
+
+  private static ByteBuffer writeBytes(FileChannel channel, ByteBuffer buffer, byte[] bytes) throws IOException {
+    buffer = ensureRemaining(channel, buffer, 4);
+    buffer.putInt(bytes.length);
+    if (bytes.length > buffer.remaining()) {
+      flush(channel, buffer);
+      if (bytes.length > buffer.capacity()) {
+        channel.write(ByteBuffer.wrap(bytes));
+        return buffer;
+      }
+    }
+    buffer.put(bytes);
+    return buffer;
+  }
+
+  private static ByteBuffer ensureRemaining(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+    if (buffer.remaining() < bytes) {
+      flush(channel, buffer);
+    }
+    return buffer;
+  }
+
+  private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  private static byte[] readBytes(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0 || length > buffer.remaining()) {
+      // checked before allocating, so that a corrupt length cannot exhaust the heap
+      throw new CacheException("Corrupt cache snapshot: length " + length + " with " + buffer.remaining()
+          + " bytes remaining");
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  private static byte[] serialize(Object object) {
+    if (!(object instanceof Serializable)) {
+      return null;
+    }
+    try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
+         ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+      oos.writeObject(object);
+      oos.flush();
+      return bos.toByteArray();
+    } catch (Exception e) {
+      // not serializable after all, such as a list holding a non-serializable object
+      return null;
+    }
+  }
+
+  private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+    try (ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
+         ObjectInputStream ois = new SerializedCache.CustomObjectInputStream(bis)) {
+      return ois.readObject();
+    }
+  }
+
+  private static class ExecutorHolder {
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "mybatis-cache-snapshot");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+}
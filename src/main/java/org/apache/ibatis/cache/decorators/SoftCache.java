@@ -22,6 +22,8 @@ import java.util.LinkedList;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStats;
+import org.apache.ibatis.cache.CacheStats.EvictionCause;
 
 /**
  * Soft Reference cache decorator
@@ -34,6 +36,7 @@ public class SoftCache implements Cache {
   private final ReferenceQueue<Object> queueOfGarbageCollectedEntries;
   private final Cache delegate;
   private int numberOfHardLinks;
+  private CacheStats stats;
 
   public SoftCache(Cache delegate) {
     this.delegate = delegate;
@@ -58,6 +61,14 @@ public class SoftCache implements Cache {
     this.numberOfHardLinks = size;
   }
 
+  /**
+   * @param stats the statistics to record the evictions in
+   * @since 3.5.2
+   */
+  public void setStats(CacheStats stats) {
+    this.stats = stats;
+  }
+
   @Override
   public void putObject(Object key, Object value) {
     removeGarbageCollectedItems();
@@ -86,6 +97,12 @@ public class SoftCache implements Cache {
     return result;
   }
 
+  @Override
+  public Object peekObject(Object key) {
+    SoftReference<?> reference = (SoftReference<?>) delegate.peekObject(key);
+    return reference == null ? null : reference.get();
+  }
+
   @Override
   public Object removeObject(Object key) {
     removeGarbageCollectedItems();
@@ -110,6 +127,9 @@ public class SoftCache implements Cache {
     SoftEntry sv;
     while ((sv = (SoftEntry) queueOfGarbageCollectedEntries.poll()) != null) {
       delegate.removeObject(sv.key);
+      if (stats != null) {
+        stats.recordEviction(EvictionCause.COLLECTED);
+      }
     }
   }
 
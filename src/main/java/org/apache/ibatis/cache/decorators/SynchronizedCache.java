@@ -18,6 +18,7 @@ package org.apache.ibatis.cache.decorators;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStats;
 
 /**
  * @author Clinton Begin
@@ -50,6 +51,11 @@ public class SynchronizedCache implements Cache {
     return delegate.getObject(key);
   }
 
+  @Override
+  public synchronized Object peekObject(Object key) {
+    return delegate.peekObject(key);
+  }
+
   @Override
   public synchronized Object removeObject(Object key) {
     return delegate.removeObject(key);
@@ -75,4 +81,9 @@ public class SynchronizedCache implements Cache {
     return null;
   }
 
+  @Override
+  public CacheStats getStats() {
+    return delegate.getStats();
+  }
+
 }
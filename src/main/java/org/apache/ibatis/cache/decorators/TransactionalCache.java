@@ -17,11 +17,14 @@ package org.apache.ibatis.cache.decorators;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheInvalidation;
+import org.apache.ibatis.cache.CacheInvalidationBus;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 
@@ -61,12 +64,32 @@ public class TransactionalCache implements Cache {
    * 缓存未命中的数据，事务commit时，也会放入二级缓存（key,null）
    */
   private final Set<Object> entriesMissedInCache;
+  /**
+   * 提交时，按缓存标签从 {@link #delegate} 中移除的数据的标签
+   */
+  private final Set<String> tagsToEvictOnCommit;
+  private CacheTagIndex tagIndex;
+  /**
+   * 提交时，通知集群中其它节点的失效消息总线，可以为空
+   */
+  private final CacheInvalidationBus invalidationBus;
 
   public TransactionalCache(Cache delegate) {
+    this(delegate, null);
+  }
+
+  /**
+   * @param delegate the second level cache
+   * @param invalidationBus the bus to publish the committed invalidations to, or null
+   * @since 3.5.2
+   */
+  public TransactionalCache(Cache delegate, CacheInvalidationBus invalidationBus) {
     this.delegate = delegate;
+    this.invalidationBus = invalidationBus;
     this.clearOnCommit = false;
     this.entriesToAddOnCommit = new HashMap<>();
     this.entriesMissedInCache = new HashSet<>();
+    this.tagsToEvictOnCommit = new HashSet<>();
   }
 
   @Override
@@ -87,7 +110,7 @@ public class TransactionalCache implements Cache {
       entriesMissedInCache.add(key);
     }
     // issue #146
-    if (clearOnCommit) {
+    if (clearOnCommit || !tagsToEvictOnCommit.isEmpty() && CacheTagIndex.isEvictedBy(key, tagsToEvictOnCommit)) {
       return null;
     } else {
       return object;
@@ -115,12 +138,43 @@ public class TransactionalCache implements Cache {
     entriesToAddOnCommit.clear();
   }
 
+  /**
+   * Evicts on commit the entries sharing any of the given cache tags instead of clearing the whole cache.
+   *
+   * @param tagIndex the index of the entries of the cache
+   * @param tags the cache tags of the statement writing to the database
+   * @since 3.5.2
+   */
+  public void evictTags(CacheTagIndex tagIndex, String[] tags) {
+    if (clearOnCommit) {
+      return;
+    }
+    this.tagIndex = tagIndex;
+    for (String tag : tags) {
+      tagsToEvictOnCommit.add(tag);
+    }
+    Iterator<Object> keys = entriesToAddOnCommit.keySet().iterator();
+    while (keys.hasNext()) {
+      if (CacheTagIndex.isEvictedBy(keys.next(), tagsToEvictOnCommit)) {
+        keys.remove();
+      }
+    }
+  }
+
   public void commit() {
+    CacheInvalidation invalidation = null;
     if (clearOnCommit) {
       delegate.clear();
+      invalidation = new CacheInvalidation(getId(), null);
+    } else if (!tagsToEvictOnCommit.isEmpty()) {
+      tagIndex.evict(tagsToEvictOnCommit);
+      invalidation = new CacheInvalidation(getId(), tagsToEvictOnCommit.toArray(new String[0]));
     }
     flushPendingEntries();
     reset();
+    if (invalidation != null && invalidationBus != null) {
+      publish(invalidation);
+    }
   }
 
   public void rollback() {
@@ -132,6 +186,8 @@ public class TransactionalCache implements Cache {
     clearOnCommit = false;
     entriesToAddOnCommit.clear();
     entriesMissedInCache.clear();
+    tagsToEvictOnCommit.clear();
+    tagIndex = null;
   }
 
   private void flushPendingEntries() {
@@ -147,6 +203,16 @@ public class TransactionalCache implements Cache {
     }
   }
 
+  private void publish(CacheInvalidation invalidation) {
+    try {
+      invalidationBus.publish(invalidation);
+    } catch (Exception e) {
+      // the transaction is already committed, the other nodes will catch up on their flush interval
+      log.warn("Unexpected exception while publishing the invalidation of " + invalidation
+          + " to the other nodes.  Cause: " + e);
+    }
+  }
+
   private void unlockMissedEntries() {
     for (Object entry : entriesMissedInCache) {
       try {
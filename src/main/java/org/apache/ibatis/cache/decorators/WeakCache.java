@@ -22,6 +22,8 @@ import java.util.LinkedList;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStats;
+import org.apache.ibatis.cache.CacheStats.EvictionCause;
 
 /**
  * Weak Reference cache decorator.
@@ -34,6 +36,7 @@ public class WeakCache implements Cache {
   private final ReferenceQueue<Object> queueOfGarbageCollectedEntries;
   private final Cache delegate;
   private int numberOfHardLinks;
+  private CacheStats stats;
 
   public WeakCache(Cache delegate) {
     this.delegate = delegate;
@@ -57,6 +60,14 @@ public class WeakCache implements Cache {
     this.numberOfHardLinks = size;
   }
 
+  /**
+   * @param stats the statistics to record the evictions in
+   * @since 3.5.2
+   */
+  public void setStats(CacheStats stats) {
+    this.stats = stats;
+  }
+
   @Override
   public void putObject(Object key, Object value) {
     removeGarbageCollectedItems();
@@ -82,6 +93,12 @@ public class WeakCache implements Cache {
     return result;
   }
 
+  @Override
+  public Object peekObject(Object key) {
+    WeakReference<?> reference = (WeakReference<?>) delegate.peekObject(key);
+    return reference == null ? null : reference.get();
+  }
+
   @Override
   public Object removeObject(Object key) {
     removeGarbageCollectedItems();
@@ -104,6 +121,9 @@ public class WeakCache implements Cache {
     WeakEntry sv;
     while ((sv = (WeakEntry) queueOfGarbageCollectedEntries.poll()) != null) {
       delegate.removeObject(sv.key);
+      if (stats != null) {
+        stats.recordEviction(EvictionCause.COLLECTED);
+      }
     }
   }
 
@@ -0,0 +1,233 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheStats;
+import org.apache.ibatis.cache.CacheStats.EvictionCause;
+import org.apache.ibatis.cache.CacheWeigher;
+import org.apache.ibatis.io.Resources;
+
+/**
+ * Least recently used cache decorator bounded by the estimated weight of its entries rather than by their number.
+ * <p>
+ * By default an entry weighs {@link #setRowWeight(int) rowWeight} bytes, plus the length of the value when it is
+ * stored serialized, or plus {@code rowWeight} bytes per row when it is a list. Another estimate can be plugged in
+ * with a {@link CacheWeigher}.
+ * <p>
+ * Entries are evicted when the cache weighs more than {@link #setMaxWeight(long) maxWeight}, or when the
+ * {@link CacheWeightBudget} it shares with the other caches is exceeded and the cache weighs more than its fair
+ * share. An entry heavier than {@code maxWeight} is not cached at all.
+ *
+ * @since 3.5.2
+ */
+public class WeightedCache implements Cache {
+
+  public static final long DEFAULT_MAX_WEIGHT = 64L * 1024 * 1024;
+  public static final int DEFAULT_ROW_WEIGHT = 256;
+
+  private final Cache delegate;
+  private final Map<Object, Long> weights = new LinkedHashMap<>(16, .75F, true);
+  private long weight;
+  private long maxWeight = DEFAULT_MAX_WEIGHT;
+  private int rowWeight = DEFAULT_ROW_WEIGHT;
+  private CacheWeigher weigher = this::estimateWeight;
+  private CacheWeightBudget budget;
+  private CacheStats stats;
+
+  public WeightedCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  /**
+   * @return the estimated number of bytes retained by the entries of this cache
+   */
+  public long getWeight() {
+    return weight;
+  }
+
+  public long getMaxWeight() {
+    return maxWeight;
+  }
+
+  /**
+   * @param maxWeight the maximum weight of this cache in bytes, 0 or less for no limit
+   */
+  public void setMaxWeight(long maxWeight) {
+    this.maxWeight = maxWeight;
+    evict(null);
+  }
+
+  public int getRowWeight() {
+    return rowWeight;
+  }
+
+  /**
+   * @param rowWeight the estimated number of bytes retained by a row of a cached list, used by the default weigher
+   */
+  public void setRowWeight(int rowWeight) {
+    this.rowWeight = rowWeight;
+  }
+
+  /**
+   * @param stats the statistics to record the evictions in
+   * @since 3.5.2
+   */
+  public void setStats(CacheStats stats) {
+    this.stats = stats;
+  }
+
+  public void setWeigher(CacheWeigher weigher) {
+    this.weigher = weigher;
+  }
+
+  /**
+   * Sets the weigher from its class name, so that it can be configured with a cache property.
+   *
+   * @param weigherClass the fully qualified name of a {@link CacheWeigher} implementation
+   */
+  public void setWeigherClass(String weigherClass) {
+    try {
+      setWeigher((CacheWeigher) Resources.classForName(weigherClass).getDeclaredConstructor().newInstance());
+    } catch (Exception e) {
+      throw new CacheException("Error instantiating cache weigher " + weigherClass + ".  Cause: " + e, e);
+    }
+  }
+
+  /**
+   * @param budget the budget shared with the other caches, or null to only bound this cache by its own maximum weight
+   */
+  public void setWeightBudget(CacheWeightBudget budget) {
+    if (this.budget != null) {
+      this.budget.add(-weight);
+      this.budget.unregister();
+    }
+    this.budget = budget;
+    if (budget != null) {
+      budget.register();
+      budget.add(weight);
+    }
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    discard(key);
+    long entryWeight = Math.max(weigher.weigh(key, value), 0);
+    if (maxWeight > 0 && entryWeight > maxWeight) {
+      delegate.removeObject(key);
+      return;
+    }
+    delegate.putObject(key, value);
+    weights.put(key, entryWeight);
+    addWeight(entryWeight);
+    evict(key);
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    weights.get(key); //touch
+    return delegate.getObject(key);
+  }
+
+  @Override
+  public Object peekObject(Object key) {
+    return delegate.peekObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    discard(key);
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+    weights.clear();
+    addWeight(-weight);
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  private long estimateWeight(Object key, Object value) {
+    long entryWeight = rowWeight;
+    if (value instanceof byte[]) {
+      entryWeight += ((byte[]) value).length;
+    } else if (value instanceof Collection) {
+      entryWeight += (long) ((Collection<?>) value).size() * rowWeight;
+    } else if (value != null) {
+      entryWeight += rowWeight;
+    }
+    return entryWeight;
+  }
+
+  private void discard(Object key) {
+    Long entryWeight = weights.remove(key);
+    if (entryWeight != null) {
+      addWeight(-entryWeight);
+    }
+  }
+
+  private void evict(Object retainedKey) {
+    Iterator<Map.Entry<Object, Long>> iterator = weights.entrySet().iterator();
+    while (isOverweight() && iterator.hasNext()) {
+      Map.Entry<Object, Long> eldest = iterator.next();
+      if (eldest.getKey() != retainedKey) {
+        iterator.remove();
+        addWeight(-eldest.getValue());
+        delegate.removeObject(eldest.getKey());
+        if (stats != null) {
+          stats.recordEviction(EvictionCause.SIZE);
+        }
+      }
+    }
+  }
+
+  private boolean isOverweight() {
+    if (maxWeight > 0 && weight > maxWeight) {
+      return true;
+    }
+    return budget != null && budget.isExceeded() && weight > budget.getFairShare();
+  }
+
+  private void addWeight(long delta) {
+    weight += delta;
+    if (budget != null) {
+      budget.add(delta);
+    }
+  }
+
+}
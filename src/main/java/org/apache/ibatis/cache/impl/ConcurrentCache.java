@@ -0,0 +1,277 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheStats;
+import org.apache.ibatis.cache.CacheStats.EvictionCause;
+import org.apache.ibatis.cache.decorators.CacheTagIndex;
+
+/**
+ * Thread safe cache with a bounded size, that does not need to be wrapped in a
+ * {@link org.apache.ibatis.cache.decorators.SynchronizedCache}.
+ * <p>
+ * Reads never lock: they only mark the entry as referenced. Writes that add an entry take a lock to place it in a
+ * CLOCK ring that approximates LRU eviction: when the cache is full, the hand sweeps the ring, gives referenced
+ * entries a second chance and evicts the first one that was not read since the last sweep.
+ *
+ * @since 3.5.2
+ */
+public class ConcurrentCache implements Cache {
+
+  private final String id;
+  private final ConcurrentHashMap<Object, Entry> entries = new ConcurrentHashMap<>();
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  private CacheStats stats;
+  private CacheTagIndex tagIndex;
+
+  // guarded by evictionLock
+  private int size;
+  private Entry[] clock;
+  private int[] freeSlots;
+  private int freeSlotCount;
+  private int hand;
+
+  public ConcurrentCache(String id) {
+    this.id = id;
+    setSize(1024);
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public int getSize() {
+    return entries.size();
+  }
+
+  /**
+   * Sets the maximum number of entries, clearing the cache.
+   *
+   * @param size the maximum number of entries
+   */
+  public void setSize(int size) {
+    evictionLock.lock();
+    try {
+      this.size = Math.max(size, 0);
+      entries.clear();
+      resetClock();
+      if (tagIndex != null) {
+        tagIndex.clear();
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /**
+   * @param stats the statistics to record the evictions in
+   * @since 3.5.2
+   */
+  public void setStats(CacheStats stats) {
+    this.stats = stats;
+  }
+
+  /**
+   * Starts maintaining the given index of the entries by cache tags, indexing the entries already stored.
+   *
+   * @param tagIndex the index, or null to stop maintaining it
+   * @since 3.5.2
+   */
+  public void setTagIndex(CacheTagIndex tagIndex) {
+    evictionLock.lock();
+    try {
+      this.tagIndex = tagIndex;
+      if (tagIndex != null) {
+        entries.keySet().forEach(tagIndex::add);
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    Entry entry = entries.get(key);
+    if (entry != null) {
+      entry.value = value;
+      entry.referenced = true;
+      return;
+    }
+    evictionLock.lock();
+    try {
+      entry = entries.get(key);
+      if (entry != null) {
+        entry.value = value;
+        entry.referenced = true;
+        return;
+      }
+      if (size == 0) {
+        return;
+      }
+      entry = new Entry(key, value);
+      entry.slot = freeSlotCount > 0 ? freeSlots[--freeSlotCount] : evict();
+      clock[entry.slot] = entry;
+      entries.put(key, entry);
+      if (tagIndex != null) {
+        tagIndex.add(key);
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    // avoid writing to a shared line when the entry is read often
+    if (!entry.referenced) {
+      entry.referenced = true;
+    }
+    return entry.value;
+  }
+
+  @Override
+  public Object peekObject(Object key) {
+    Entry entry = entries.get(key);
+    return entry == null ? null : entry.value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Entry entry = entries.remove(key);
+    if (entry == null) {
+      return null;
+    }
+    evictionLock.lock();
+    try {
+      // the slot may have been reused if the entry was evicted in the meantime
+      if (clock[entry.slot] == entry) {
+        clock[entry.slot] = null;
+        freeSlots[freeSlotCount++] = entry.slot;
+      }
+      // the key may have been stored again in the meantime
+      if (tagIndex != null && !entries.containsKey(key)) {
+        tagIndex.remove(key);
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+    return entry.value;
+  }
+
+  @Override
+  public void clear() {
+    evictionLock.lock();
+    try {
+      entries.clear();
+      resetClock();
+      if (tagIndex != null) {
+        tagIndex.clear();
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  private void resetClock() {
+    clock = new Entry[size];
+    freeSlots = new int[size];
+    for (int i = 0; i < size; i++) {
+      freeSlots[i] = size - 1 - i;
+    }
+    freeSlotCount = size;
+    hand = 0;
+  }
+
+  /**
+   * Evicts the entry under the hand that was not referenced since the last sweep.
+   *
+   * @return the slot of the evicted entry
+   */
+  private int evict() {
+    while (true) {
+      int slot = hand;
+      hand = (hand + 1) % size;
+      Entry victim = clock[slot];
+      if (victim.referenced) {
+        victim.referenced = false;
+      } else {
+        entries.remove(victim.key, victim);
+        clock[slot] = null;
+        if (tagIndex != null) {
+          tagIndex.remove(victim.key);
+        }
+        if (stats != null) {
+          stats.recordEviction(EvictionCause.SIZE);
+        }
+        return slot;
+      }
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Cache)) {
+      return false;
+    }
+
+    Cache otherCache = (Cache) o;
+    return getId().equals(otherCache.getId());
+  }
+
+  @Override
+  public int hashCode() {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    return getId().hashCode();
+  }
+
+  private static final class Entry {
+    private final Object key;
+    private volatile Object value;
+    private volatile boolean referenced;
+    private int slot;
+
+    Entry(Object key, Object value) {
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+}
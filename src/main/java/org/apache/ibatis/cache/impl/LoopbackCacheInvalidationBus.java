@@ -0,0 +1,70 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.ibatis.cache.CacheInvalidation;
+import org.apache.ibatis.cache.CacheInvalidationBus;
+import org.apache.ibatis.cache.CacheInvalidationListener;
+
+/**
+ * In-JVM {@link CacheInvalidationBus} that synchronously delivers the invalidations to the other nodes of its group.
+ * <p>
+ * A new instance starts a group with a single node, and {@link #newNode()} adds nodes to it, typically one per
+ * {@link org.apache.ibatis.session.Configuration} when testing several nodes in the same JVM.
+ *
+ * @since 3.5.2
+ */
+public class LoopbackCacheInvalidationBus implements CacheInvalidationBus {
+
+  private final List<LoopbackCacheInvalidationBus> group;
+  private final List<CacheInvalidationListener> listeners = new CopyOnWriteArrayList<>();
+
+  public LoopbackCacheInvalidationBus() {
+    this(new CopyOnWriteArrayList<>());
+  }
+
+  private LoopbackCacheInvalidationBus(List<LoopbackCacheInvalidationBus> group) {
+    this.group = group;
+    group.add(this);
+  }
+
+  /**
+   * @return a new node of the group of this bus
+   */
+  public LoopbackCacheInvalidationBus newNode() {
+    return new LoopbackCacheInvalidationBus(group);
+  }
+
+  @Override
+  public void publish(CacheInvalidation invalidation) {
+    for (LoopbackCacheInvalidationBus node : group) {
+      if (node != this) {
+        for (CacheInvalidationListener listener : node.listeners) {
+          listener.onInvalidation(invalidation);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void subscribe(CacheInvalidationListener listener) {
+    listeners.add(listener);
+  }
+
+}
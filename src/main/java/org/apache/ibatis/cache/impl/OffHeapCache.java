@@ -0,0 +1,410 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheStats;
+import org.apache.ibatis.cache.CacheStats.EvictionCause;
+import org.apache.ibatis.cache.decorators.CacheTagIndex;
+import org.apache.ibatis.cache.decorators.SerializedCache;
+
+/**
+ * Thread safe cache that keeps its values serialized in direct memory, outside of the Java heap.
+ * <p>
+ * Only the keys and a small index entry per value stay on the heap. The values are appended to fixed size slabs
+ * allocated with {@link ByteBuffer#allocateDirect(int)}. When {@link #setMaxBytes(long) maxBytes} are allocated and a
+ * value does not fit in the current slab, the oldest slab is reused and all the values it holds are evicted at once,
+ * which keeps the memory free of fragmentation. A value larger than a {@link #setSlabSize(int) slab} is not cached.
+ * <p>
+ * As the values are copied in and out, every caller gets its own instance, like with a read/write cache.
+ *
+ * @since 3.5.2
+ */
+public class OffHeapCache implements Cache {
+
+  public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+  public static final int DEFAULT_SLAB_SIZE = 4 * 1024 * 1024;
+
+  private static final byte OBJECT = 0;
+  private static final byte BYTES = 1;
+
+  private final String id;
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  // guarded by lock
+  private final Map<Object, Location> index = new HashMap<>();
+  private long maxBytes = DEFAULT_MAX_BYTES;
+  private int slabSize = DEFAULT_SLAB_SIZE;
+  private Slab[] slabs;
+  private int current;
+  private long usedBytes;
+  private CacheStats stats;
+  private CacheTagIndex tagIndex;
+
+  public OffHeapCache(String id) {
+    this.id = id;
+    reset();
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public int getSize() {
+    lock.readLock().lock();
+    try {
+      return index.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Sets the maximum number of bytes of direct memory to allocate, clearing the cache.
+   *
+   * @param maxBytes the maximum number of bytes, at least one slab is always allocated
+   */
+  public void setMaxBytes(long maxBytes) {
+    lock.writeLock().lock();
+    try {
+      this.maxBytes = maxBytes;
+      reset();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  public int getSlabSize() {
+    return slabSize;
+  }
+
+  /**
+   * Sets the number of bytes of direct memory allocated at once, clearing the cache.
+   *
+   * @param slabSize the size of a slab in bytes, which is also the size of the largest value that can be cached
+   */
+  public void setSlabSize(int slabSize) {
+    lock.writeLock().lock();
+    try {
+      this.slabSize = slabSize;
+      reset();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @return the number of bytes of direct memory taken by the values currently cached
+   */
+  public long getUsedBytes() {
+    lock.readLock().lock();
+    try {
+      return usedBytes;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return the number of bytes of direct memory allocated so far, including the space of removed values that is not
+   *         reused yet
+   */
+  public long getAllocatedBytes() {
+    lock.readLock().lock();
+    try {
+      long allocated = 0;
+      for (Slab slab : slabs) {
+        if (slab != null) {
+          allocated += slab.buffer.capacity();
+        }
+      }
+      return allocated;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @param stats the statistics to record the evictions in
+   * @since 3.5.2
+   */
+  public void setStats(CacheStats stats) {
+    this.stats = stats;
+  }
+
+  /**
+   * Starts maintaining the given index of the entries by cache tags, indexing the entries already stored.
+   *
+   * @param tagIndex the index, or null to stop maintaining it
+   * @since 3.5.2
+   */
+  public void setTagIndex(CacheTagIndex tagIndex) {
+    lock.writeLock().lock();
+    try {
+      this.tagIndex = tagIndex;
+      if (tagIndex != null) {
+        index.keySet().forEach(tagIndex::add);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    byte[] bytes = value instanceof byte[] ? (byte[]) value : serialize(value);
+    int length = bytes.length + 1;
+    lock.writeLock().lock();
+    try {
+      discard(key);
+      if (length > slabSize) {
+        return;
+      }
+      Slab slab = slabFor(length);
+      int offset = slab.position;
+      ByteBuffer buffer = slab.buffer.duplicate();
+      buffer.position(offset);
+      buffer.put(value instanceof byte[] ? BYTES : OBJECT);
+      buffer.put(bytes);
+      slab.position += length;
+      slab.keys.add(key);
+      index.put(key, new Location(slab, offset, length));
+      usedBytes += length;
+      if (tagIndex != null) {
+        tagIndex.add(key);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    byte type;
+    byte[] bytes;
+    lock.readLock().lock();
+    try {
+      Location location = index.get(key);
+      if (location == null) {
+        return null;
+      }
+      ByteBuffer buffer = location.slab.buffer.duplicate();
+      buffer.position(location.offset);
+      type = buffer.get();
+      bytes = new byte[location.length - 1];
+      buffer.get(bytes);
+    } finally {
+      lock.readLock().unlock();
+    }
+    return type == BYTES ? bytes : deserialize(bytes);
+  }
+
+  @Override
+  public Object peekObject(Object key) {
+    // reading has no side effect
+    return getObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    lock.writeLock().lock();
+    try {
+      discard(key);
+      return null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void clear() {
+    lock.writeLock().lock();
+    try {
+      index.clear();
+      if (tagIndex != null) {
+        tagIndex.clear();
+      }
+      usedBytes = 0;
+      for (Slab slab : slabs) {
+        if (slab != null) {
+          slab.reset();
+        }
+      }
+      current = 0;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  private void reset() {
+    index.clear();
+    if (tagIndex != null) {
+      tagIndex.clear();
+    }
+    usedBytes = 0;
+    slabs = new Slab[(int) Math.max(1, Math.min(Integer.MAX_VALUE, maxBytes / slabSize))];
+    current = 0;
+  }
+
+  private void discard(Object key) {
+    Location location = index.remove(key);
+    if (location != null) {
+      usedBytes -= location.length;
+      if (tagIndex != null) {
+        tagIndex.remove(key);
+      }
+    }
+  }
+
+  /**
+   * Returns the slab to append a value to, moving to the next slab if the current one is full. The next slab is
+   * allocated on first use, and emptied of the values it holds when it is reused.
+   */
+  private Slab slabFor(int length) {
+    Slab slab = slabs[current];
+    if (slab != null && slab.position + length <= slabSize) {
+      return slab;
+    }
+    if (slab != null) {
+      current = (current + 1) % slabs.length;
+      slab = slabs[current];
+    }
+    if (slab == null) {
+      slab = new Slab(ByteBuffer.allocateDirect(slabSize));
+      slabs[current] = slab;
+    } else {
+      evict(slab);
+    }
+    return slab;
+  }
+
+  private void evict(Slab slab) {
+    for (Object key : slab.keys) {
+      Location location = index.get(key);
+      if (location != null && location.slab == slab) {
+        index.remove(key);
+        usedBytes -= location.length;
+        if (tagIndex != null) {
+          tagIndex.remove(key);
+        }
+        if (stats != null) {
+          stats.recordEviction(EvictionCause.SIZE);
+        }
+      }
+    }
+    slab.reset();
+  }
+
+  private byte[] serialize(Object value) {
+    if (value != null && !(value instanceof Serializable)) {
+      throw new CacheException("OffHeapCache failed to store a non-serializable object: " + value);
+    }
+    try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
+         ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+      oos.writeObject(value);
+      oos.flush();
+      return bos.toByteArray();
+    } catch (Exception e) {
+      throw new CacheException("Error serializing object.  Cause: " + e, e);
+    }
+  }
+
+  private Object deserialize(byte[] value) {
+    try (ByteArrayInputStream bis = new ByteArrayInputStream(value);
+         ObjectInputStream ois = new SerializedCache.CustomObjectInputStream(bis)) {
+      return ois.readObject();
+    } catch (Exception e) {
+      throw new CacheException("Error deserializing object.  Cause: " + e, e);
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Cache)) {
+      return false;
+    }
+
+    Cache otherCache = (Cache) o;
+    return getId().equals(otherCache.getId());
+  }
+
+  @Override
+  public int hashCode() {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    return getId().hashCode();
+  }
+
+  private static class Slab {
+    private final ByteBuffer buffer;
+    private final List<Object> keys = new ArrayList<>();
+    private int position;
+
+    Slab(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    void reset() {
+      keys.clear();
+      position = 0;
+    }
+  }
+
+  private static class Location {
+    private final Slab slab;
+    private final int offset;
+    private final int length;
+
+    Location(Slab slab, int offset, int length) {
+      this.slab = slab;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+}
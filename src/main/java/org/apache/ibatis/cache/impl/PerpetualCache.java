@@ -21,6 +21,7 @@ import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.decorators.CacheTagIndex;
 
 /**
  * @author Clinton Begin
@@ -30,6 +31,7 @@ public class PerpetualCache implements Cache {
   private final String id;
 
   private Map<Object, Object> cache = new HashMap<>();
+  private CacheTagIndex tagIndex;
 
   public PerpetualCache(String id) {
     this.id = id;
@@ -45,9 +47,24 @@ public class PerpetualCache implements Cache {
     return cache.size();
   }
 
+  /**
+   * Starts maintaining the given index of the entries by cache tags, indexing the entries already stored.
+   *
+   * @param tagIndex the index, or null to stop maintaining it
+   * @since 3.5.2
+   */
+  public void setTagIndex(CacheTagIndex tagIndex) {
+    this.tagIndex = tagIndex;
+    if (tagIndex != null) {
+      cache.keySet().forEach(tagIndex::add);
+    }
+  }
+
   @Override
   public void putObject(Object key, Object value) {
-    cache.put(key, value);
+    if (cache.put(key, value) == null && tagIndex != null) {
+      tagIndex.add(key);
+    }
   }
 
   @Override
@@ -55,14 +72,25 @@ public class PerpetualCache implements Cache {
     return cache.get(key);
   }
 
+  @Override
+  public Object peekObject(Object key) {
+    return cache.get(key);
+  }
+
   @Override
   public Object removeObject(Object key) {
+    if (tagIndex != null) {
+      tagIndex.remove(key);
+    }
     return cache.remove(key);
   }
 
   @Override
   public void clear() {
     cache.clear();
+    if (tagIndex != null) {
+      tagIndex.clear();
+    }
   }
 
   @Override
@@ -0,0 +1,256 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free holder of the connections used by a {@link PooledDataSource} running in concurrent mode.
+ * <p>
+ * Every connection is kept in a shared list and is claimed or released by switching its state with a
+ * compare-and-set. A borrowing thread first looks at the connections it returned itself, then scans the
+ * shared list, and finally waits on a fair hand-off queue that returning threads feed directly.
+ * <p>
+ * A connection is only ever borrowed for the {@link ConnectionKey} it was opened with, and each key has its own
+ * hand-off queue.
+ *
+ * @see PooledDataSource#setPoolConcurrentMode(boolean)
+ */
+class ConnectionBag {
+
+  static final int STATE_NOT_IN_USE = 0;
+  static final int STATE_IN_USE = 1;
+  static final int STATE_REMOVED = -1;
+
+  private static final int MAX_THREAD_LOCAL_CONNECTIONS = 16;
+  private static final Object SLOT_RELEASED = new Object();
+
+  private final CopyOnWriteArrayList<PooledConnection> sharedList = new CopyOnWriteArrayList<>();
+  private final ThreadLocal<List<WeakReference<PooledConnection>>> threadList = ThreadLocal.withInitial(ArrayList::new);
+  private final ConcurrentHashMap<ConnectionKey, Handoff> handoffs = new ConcurrentHashMap<>();
+  private final AtomicInteger waiters = new AtomicInteger();
+  private final AtomicInteger totalConnections = new AtomicInteger();
+
+  /**
+   * Claims an idle connection of the given key without waiting.
+   *
+   * @param key the key of the connection to claim
+   * @return a connection in {@link #STATE_IN_USE} state, or null if none is idle
+   */
+  PooledConnection borrow(ConnectionKey key) {
+    List<WeakReference<PooledConnection>> list = threadList.get();
+    for (int i = list.size() - 1; i >= 0; i--) {
+      PooledConnection conn = list.remove(i).get();
+      if (conn != null && conn.getKey() == key && conn.compareAndSetState(STATE_NOT_IN_USE, STATE_IN_USE)) {
+        return conn;
+      }
+    }
+    for (PooledConnection conn : sharedList) {
+      if (conn.getKey() == key && conn.compareAndSetState(STATE_NOT_IN_USE, STATE_IN_USE)) {
+        return conn;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Waits for a connection of the given key to be returned by another thread.
+   *
+   * @param key the key of the connection to wait for
+   * @param timeout the maximum time to wait in milliseconds
+   * @return a connection in {@link #STATE_IN_USE} state, or null if the timeout elapsed or if another thread
+   *         released a slot with {@link #releaseSlot()}
+   * @throws InterruptedException if the current thread was interrupted while waiting
+   */
+  PooledConnection poll(ConnectionKey key, long timeout) throws InterruptedException {
+    Handoff handoff = handoffs.computeIfAbsent(key, k -> new Handoff());
+    handoff.waiters.incrementAndGet();
+    waiters.incrementAndGet();
+    try {
+      // a connection may have been returned before this thread was registered as a waiter
+      for (PooledConnection conn : sharedList) {
+        if (conn.getKey() == key && conn.compareAndSetState(STATE_NOT_IN_USE, STATE_IN_USE)) {
+          return conn;
+        }
+      }
+      long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+      while (remaining > 0) {
+        long start = System.nanoTime();
+        Object item = handoff.queue.poll(remaining, TimeUnit.NANOSECONDS);
+        if (item == null || item == SLOT_RELEASED) {
+          return null;
+        }
+        PooledConnection conn = (PooledConnection) item;
+        if (conn.compareAndSetState(STATE_NOT_IN_USE, STATE_IN_USE)) {
+          return conn;
+        }
+        remaining -= System.nanoTime() - start;
+      }
+      return null;
+    } finally {
+      waiters.decrementAndGet();
+      handoff.waiters.decrementAndGet();
+    }
+  }
+
+  /**
+   * Releases a connection so that it can be borrowed again, handing it to a thread waiting for its key if there is
+   * one.
+   *
+   * @param conn the connection to release, it must be in the bag
+   */
+  void requite(PooledConnection conn) {
+    conn.setState(STATE_NOT_IN_USE);
+    Handoff handoff = conn.getKey() == null ? null : handoffs.get(conn.getKey());
+    for (int i = 0; handoff != null && handoff.waiters.get() > 0; i++) {
+      if (conn.getState() != STATE_NOT_IN_USE || handoff.queue.offer(conn)) {
+        return;
+      }
+      backOff(i);
+    }
+    List<WeakReference<PooledConnection>> list = threadList.get();
+    if (list.size() < MAX_THREAD_LOCAL_CONNECTIONS) {
+      list.add(conn.getWeakReference());
+    }
+  }
+
+  /**
+   * Reserves a slot for a new connection if the bag holds less than the given number of connections.
+   *
+   * @param maximum the maximum number of connections
+   * @return true if a slot was reserved, in which case either {@link #add(PooledConnection)} or
+   *         {@link #cancelReservation()} must follow
+   */
+  boolean reserve(int maximum) {
+    for (;;) {
+      int total = totalConnections.get();
+      if (total >= maximum) {
+        return false;
+      }
+      if (totalConnections.compareAndSet(total, total + 1)) {
+        return true;
+      }
+    }
+  }
+
+  void cancelReservation() {
+    totalConnections.decrementAndGet();
+  }
+
+  /**
+   * Adds a connection in {@link #STATE_IN_USE} state to a previously reserved slot.
+   *
+   * @param conn the connection to add
+   */
+  void add(PooledConnection conn) {
+    conn.setState(STATE_IN_USE);
+    sharedList.add(conn);
+  }
+
+  /**
+   * Removes a connection and frees its slot.
+   *
+   * @param conn the connection to remove
+   * @return true if the connection was removed by this call
+   */
+  boolean remove(PooledConnection conn) {
+    for (;;) {
+      int current = conn.getState();
+      if (current == STATE_REMOVED) {
+        return false;
+      }
+      if (conn.compareAndSetState(current, STATE_REMOVED)) {
+        break;
+      }
+    }
+    if (sharedList.removeIf(c -> c == conn)) {
+      totalConnections.decrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return the number of connections in the bag, including reserved slots
+   */
+  int size() {
+    return totalConnections.get();
+  }
+
+  List<PooledConnection> values() {
+    return sharedList;
+  }
+
+  int getCount(int state) {
+    int count = 0;
+    for (PooledConnection conn : sharedList) {
+      if (conn.getState() == state) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Wakes up one waiting thread so that it can use a slot freed by {@link #remove(PooledConnection)}, typically
+   * because the removed connection was opened for another key than the one the thread waits for.
+   */
+  void releaseSlot() {
+    for (int i = 0; waiters.get() > 0; i++) {
+      for (Handoff handoff : handoffs.values()) {
+        if (handoff.waiters.get() > 0 && handoff.queue.offer(SLOT_RELEASED)) {
+          return;
+        }
+      }
+      backOff(i);
+    }
+  }
+
+  private static void backOff(int attempt) {
+    if ((attempt & 0xff) == 0xff) {
+      LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+    } else {
+      Thread.yield();
+    }
+  }
+
+  boolean hasWaiters() {
+    return waiters.get() > 0;
+  }
+
+  boolean hasWaiters(ConnectionKey key) {
+    Handoff handoff = key == null ? null : handoffs.get(key);
+    return handoff != null && handoff.waiters.get() > 0;
+  }
+
+  int getWaiterCount() {
+    return waiters.get();
+  }
+
+  private static class Handoff {
+    private final SynchronousQueue<Object> queue = new SynchronousQueue<>(true);
+    private final AtomicInteger waiters = new AtomicInteger();
+  }
+
+}
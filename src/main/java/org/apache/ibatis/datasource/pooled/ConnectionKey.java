@@ -0,0 +1,72 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.util.Objects;
+
+/**
+ * The credentials a pooled connection was opened with. Each key has its own share of a {@link PooledDataSource}.
+ * <p>
+ * Keys are canonicalized by the pool, so connections are matched to a request by identity.
+ */
+final class ConnectionKey {
+
+  private final String username;
+  private final String password;
+  private final int hashCode;
+
+  ConnectionKey(String username, String password) {
+    this.username = username;
+    this.password = password;
+    this.hashCode = Objects.hash(username, password);
+  }
+
+  boolean matches(String username, String password) {
+    return Objects.equals(this.username, username) && Objects.equals(this.password, password);
+  }
+
+  String getUsername() {
+    return username;
+  }
+
+  String getPassword() {
+    return password;
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof ConnectionKey)) {
+      return false;
+    }
+    ConnectionKey other = (ConnectionKey) obj;
+    return hashCode == other.hashCode && matches(other.username, other.password);
+  }
+
+  @Override
+  public String toString() {
+    // never expose the password
+    return "ConnectionKey[" + username + "]";
+  }
+
+}
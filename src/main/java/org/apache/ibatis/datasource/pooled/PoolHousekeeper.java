@@ -0,0 +1,89 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Periodically maintains a {@link PooledDataSource} off the caller threads.
+ * <p>
+ * All pools share a single daemon thread. The pool is only weakly referenced, so an abandoned pool can still be
+ * garbage collected, in which case its task cancels itself.
+ *
+ * @see PooledDataSource#setPoolHousekeepingInterval(int)
+ */
+class PoolHousekeeper implements Runnable {
+
+  private static final Log log = LogFactory.getLog(PoolHousekeeper.class);
+
+  private final WeakReference<PooledDataSource> dataSource;
+  private volatile ScheduledFuture<?> future;
+
+  private PoolHousekeeper(PooledDataSource dataSource) {
+    this.dataSource = new WeakReference<>(dataSource);
+  }
+
+  /**
+   * Starts maintaining the given pool. The first run happens immediately so that the pool is filled up front.
+   *
+   * @param dataSource the pool to maintain
+   * @param interval the delay between two runs in milliseconds
+   * @return the housekeeper, to be stopped when the pool no longer needs it
+   */
+  static PoolHousekeeper start(PooledDataSource dataSource, long interval) {
+    PoolHousekeeper housekeeper = new PoolHousekeeper(dataSource);
+    housekeeper.future = ExecutorHolder.EXECUTOR.scheduleWithFixedDelay(housekeeper, 0, interval, TimeUnit.MILLISECONDS);
+    return housekeeper;
+  }
+
+  void stop() {
+    ScheduledFuture<?> scheduled = future;
+    if (scheduled != null) {
+      scheduled.cancel(false);
+    }
+  }
+
+  @Override
+  public void run() {
+    PooledDataSource pool = dataSource.get();
+    if (pool == null) {
+      stop();
+      return;
+    }
+    try {
+      pool.housekeep();
+    } catch (Exception e) {
+      // never propagate, it would suppress all subsequent runs
+      log.warn("PooledDataSource housekeeping failed: " + e.getMessage());
+    }
+  }
+
+  private static class ExecutorHolder {
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "mybatis-pool-housekeeper");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+}
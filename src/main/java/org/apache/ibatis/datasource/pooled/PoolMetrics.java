@@ -0,0 +1,101 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link PoolMetricsListener} keeping histograms of the checkout wait, usage and connect times of a pool,
+ * in microseconds, along with the number of timeouts and leaked connections.
+ * <p>
+ * Together with the connection counts of {@link PoolState}, they give the data needed to size a pool:
+ * <pre>
+ * PoolMetrics metrics = new PoolMetrics();
+ * dataSource.setPoolMetricsListener(metrics);
+ * ...
+ * long p99Wait = metrics.getCheckoutWaitTime().getValueAtPercentile(99);
+ * </pre>
+ *
+ * @since 3.5.2
+ */
+public class PoolMetrics implements PoolMetricsListener {
+
+  private final LatencyHistogram checkoutWaitTime = new LatencyHistogram();
+  private final LatencyHistogram usageTime = new LatencyHistogram();
+  private final LatencyHistogram connectTime = new LatencyHistogram();
+  private final LongAdder timeoutCount = new LongAdder();
+  private final LongAdder leakCount = new LongAdder();
+
+  @Override
+  public void connectionAcquired(long waitNanos) {
+    checkoutWaitTime.record(TimeUnit.NANOSECONDS.toMicros(waitNanos));
+  }
+
+  @Override
+  public void connectionReleased(long usageNanos) {
+    usageTime.record(TimeUnit.NANOSECONDS.toMicros(usageNanos));
+  }
+
+  @Override
+  public void connectionCreated(long connectNanos) {
+    connectTime.record(TimeUnit.NANOSECONDS.toMicros(connectNanos));
+  }
+
+  @Override
+  public void connectionTimedOut() {
+    timeoutCount.increment();
+  }
+
+  @Override
+  public void connectionLeaked(long checkoutNanos) {
+    leakCount.increment();
+  }
+
+  public LatencyHistogram getCheckoutWaitTime() {
+    return checkoutWaitTime;
+  }
+
+  public LatencyHistogram getUsageTime() {
+    return usageTime;
+  }
+
+  public LatencyHistogram getConnectTime() {
+    return connectTime;
+  }
+
+  public long getTimeoutCount() {
+    return timeoutCount.sum();
+  }
+
+  public long getLeakCount() {
+    return leakCount.sum();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("\n===METRICS (us)================================================");
+    builder.append("\n checkoutWaitTime               ").append(checkoutWaitTime);
+    builder.append("\n usageTime                      ").append(usageTime);
+    builder.append("\n connectTime                    ").append(connectTime);
+    builder.append("\n timeouts                       ").append(getTimeoutCount());
+    builder.append("\n leaks                          ").append(getLeakCount());
+    builder.append("\n===============================================================");
+    return builder.toString();
+  }
+
+}
@@ -0,0 +1,69 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+/**
+ * Receives the events of a {@link PooledDataSource}, to record metrics about it.
+ * <p>
+ * Methods are called on the threads checking out and returning connections, sometimes while holding the pool
+ * lock, so implementations must be thread-safe and must return quickly without allocating.
+ * All the methods do nothing by default.
+ *
+ * @see PooledDataSource#setPoolMetricsListener(PoolMetricsListener)
+ * @see PoolMetrics
+ * @since 3.5.2
+ */
+public interface PoolMetricsListener {
+
+  /**
+   * A connection was checked out.
+   *
+   * @param waitNanos the time the caller waited for the connection, including opening or pinging it
+   */
+  default void connectionAcquired(long waitNanos) {
+  }
+
+  /**
+   * A connection was returned to the pool.
+   *
+   * @param usageNanos the time the connection was checked out
+   */
+  default void connectionReleased(long usageNanos) {
+  }
+
+  /**
+   * A physical connection was opened.
+   *
+   * @param connectNanos the time it took to open the connection
+   */
+  default void connectionCreated(long connectNanos) {
+  }
+
+  /**
+   * A thread waited {@code poolTimeToWait} milliseconds without getting a connection.
+   */
+  default void connectionTimedOut() {
+  }
+
+  /**
+   * A connection was checked out for longer than {@code poolMaximumCheckoutTime} and was claimed back.
+   *
+   * @param checkoutNanos the time the connection had been checked out
+   */
+  default void connectionLeaked(long checkoutNanos) {
+  }
+
+}
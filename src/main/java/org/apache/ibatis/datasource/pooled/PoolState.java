@@ -17,6 +17,8 @@ package org.apache.ibatis.datasource.pooled;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * @author Clinton Begin
@@ -35,51 +37,97 @@ public class PoolState {
   protected long accumulatedWaitTime = 0;
   protected long hadToWaitCount = 0;
   protected long badConnectionCount = 0;
+  protected int pendingConnectionCount = 0;
+  protected int validatingConnectionCount = 0;
+  protected int pendingRequestCount = 0;
+
+  // used instead of the lists and counters above when the pool runs in concurrent mode
+  final ConnectionBag connectionBag = new ConnectionBag();
+  final LongAdder concurrentRequestCount = new LongAdder();
+  final LongAdder concurrentAccumulatedRequestTime = new LongAdder();
+  final LongAdder concurrentAccumulatedCheckoutTime = new LongAdder();
+  final LongAdder concurrentClaimedOverdueConnectionCount = new LongAdder();
+  final LongAdder concurrentAccumulatedCheckoutTimeOfOverdueConnections = new LongAdder();
+  final LongAdder concurrentAccumulatedWaitTime = new LongAdder();
+  final LongAdder concurrentHadToWaitCount = new LongAdder();
+  final LongAdder concurrentBadConnectionCount = new LongAdder();
+  final LongAdder suspectedLeakCount = new LongAdder();
+  // updated in both modes, as connections are opened outside of any lock
+  final AtomicInteger openingConnectionCount = new AtomicInteger();
 
   public PoolState(PooledDataSource dataSource) {
     this.dataSource = dataSource;
   }
 
   public synchronized long getRequestCount() {
-    return requestCount;
+    return requestCount + concurrentRequestCount.sum();
   }
 
   public synchronized long getAverageRequestTime() {
-    return requestCount == 0 ? 0 : accumulatedRequestTime / requestCount;
+    long count = getRequestCount();
+    return count == 0 ? 0 : (accumulatedRequestTime + concurrentAccumulatedRequestTime.sum()) / count;
   }
 
   public synchronized long getAverageWaitTime() {
-    return hadToWaitCount == 0 ? 0 : accumulatedWaitTime / hadToWaitCount;
+    long count = getHadToWaitCount();
+    return count == 0 ? 0 : (accumulatedWaitTime + concurrentAccumulatedWaitTime.sum()) / count;
 
   }
 
   public synchronized long getHadToWaitCount() {
-    return hadToWaitCount;
+    return hadToWaitCount + concurrentHadToWaitCount.sum();
   }
 
   public synchronized long getBadConnectionCount() {
-    return badConnectionCount;
+    return badConnectionCount + concurrentBadConnectionCount.sum();
   }
 
   public synchronized long getClaimedOverdueConnectionCount() {
-    return claimedOverdueConnectionCount;
+    return claimedOverdueConnectionCount + concurrentClaimedOverdueConnectionCount.sum();
   }
 
   public synchronized long getAverageOverdueCheckoutTime() {
-    return claimedOverdueConnectionCount == 0 ? 0 : accumulatedCheckoutTimeOfOverdueConnections / claimedOverdueConnectionCount;
+    long count = getClaimedOverdueConnectionCount();
+    return count == 0 ? 0 : (accumulatedCheckoutTimeOfOverdueConnections + concurrentAccumulatedCheckoutTimeOfOverdueConnections.sum()) / count;
   }
 
   public synchronized long getAverageCheckoutTime() {
-    return requestCount == 0 ? 0 : accumulatedCheckoutTime / requestCount;
+    long count = getRequestCount();
+    return count == 0 ? 0 : (accumulatedCheckoutTime + concurrentAccumulatedCheckoutTime.sum()) / count;
   }
 
 
   public synchronized int getIdleConnectionCount() {
-    return idleConnections.size();
+    return idleConnections.size() + connectionBag.getCount(ConnectionBag.STATE_NOT_IN_USE);
   }
 
   public synchronized int getActiveConnectionCount() {
-    return activeConnections.size();
+    return activeConnections.size() + connectionBag.getCount(ConnectionBag.STATE_IN_USE);
+  }
+
+  /**
+   * @return the number of physical connections being opened, including the ones waiting for
+   *         {@link PooledDataSource#setPoolMaximumPendingConnections(int) their turn}
+   * @since 3.5.2
+   */
+  public int getPendingConnectionCount() {
+    return openingConnectionCount.get();
+  }
+
+  /**
+   * @return the number of threads waiting for a connection
+   * @since 3.5.2
+   */
+  public synchronized int getPendingRequestCount() {
+    return pendingRequestCount + connectionBag.getWaiterCount();
+  }
+
+  /**
+   * @return the number of checkouts reported as possible leaks
+   * @since 3.5.2
+   */
+  public long getSuspectedLeakCount() {
+    return suspectedLeakCount.sum();
   }
 
   @Override
@@ -97,9 +145,23 @@ public class PoolState {
     builder.append("\n poolPingEnabled                ").append(dataSource.poolPingEnabled);
     builder.append("\n poolPingQuery                  ").append(dataSource.poolPingQuery);
     builder.append("\n poolPingConnectionsNotUsedFor  ").append(dataSource.poolPingConnectionsNotUsedFor);
+    builder.append("\n poolPingUseIsValid             ").append(dataSource.poolPingUseIsValid);
+    builder.append("\n poolPingTimeout                ").append(dataSource.poolPingTimeout);
+    builder.append("\n poolPingBypassWindow           ").append(dataSource.poolPingBypassWindow);
+    builder.append("\n poolConcurrentMode             ").append(dataSource.poolConcurrentMode);
+    builder.append("\n poolMaxPendingConnections      ").append(dataSource.poolMaximumPendingConnections);
+    builder.append("\n poolMinIdleConnections         ").append(dataSource.poolMinimumIdleConnections);
+    builder.append("\n poolMaxLifetime                ").append(dataSource.poolMaximumLifetime);
+    builder.append("\n poolIdleTimeout                ").append(dataSource.poolIdleTimeout);
+    builder.append("\n poolHousekeepingInterval       ").append(dataSource.poolHousekeepingInterval);
+    builder.append("\n poolLeakDetectionThreshold     ").append(dataSource.poolLeakDetectionThreshold);
+    builder.append("\n poolLeakDetectionSampleRate    ").append(dataSource.poolLeakDetectionSampleRate);
+    builder.append("\n poolStatementCacheSize         ").append(dataSource.poolPreparedStatementCacheSize);
     builder.append("\n ---STATUS-----------------------------------------------------");
     builder.append("\n activeConnections              ").append(getActiveConnectionCount());
     builder.append("\n idleConnections                ").append(getIdleConnectionCount());
+    builder.append("\n pendingConnections             ").append(getPendingConnectionCount());
+    builder.append("\n pendingRequests                ").append(getPendingRequestCount());
     builder.append("\n requestCount                   ").append(getRequestCount());
     builder.append("\n averageRequestTime             ").append(getAverageRequestTime());
     builder.append("\n averageCheckoutTime            ").append(getAverageCheckoutTime());
@@ -108,6 +170,7 @@ public class PoolState {
     builder.append("\n hadToWait                      ").append(getHadToWaitCount());
     builder.append("\n averageWaitTime                ").append(getAverageWaitTime());
     builder.append("\n badConnectionCount             ").append(getBadConnectionCount());
+    builder.append("\n suspectedLeakCount             ").append(getSuspectedLeakCount());
     builder.append("\n===============================================================");
     return builder.toString();
   }
@@ -15,31 +15,39 @@
  */
 package org.apache.ibatis.datasource.pooled;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
+import java.lang.ref.WeakReference;
 import java.sql.Connection;
 import java.sql.SQLException;
-
-import org.apache.ibatis.reflection.ExceptionUtil;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 /**
  * @author Clinton Begin
  */
-class PooledConnection implements InvocationHandler {
+class PooledConnection {
 
-  private static final String CLOSE = "close";
-  private static final Class<?>[] IFACES = new Class<?>[] { Connection.class };
+  private static final AtomicIntegerFieldUpdater<PooledConnection> STATE_UPDATER
+      = AtomicIntegerFieldUpdater.newUpdater(PooledConnection.class, "state");
+  private static final AtomicLongFieldUpdater<PooledConnection> EPOCH_UPDATER
+      = AtomicLongFieldUpdater.newUpdater(PooledConnection.class, "epoch");
 
   private final int hashCode;
   private final PooledDataSource dataSource;
   private final Connection realConnection;
-  private final Connection proxyConnection;
-  private long checkoutTimestamp;
+  private final ConnectionKey key;
+  private final WeakReference<PooledConnection> weakReference;
+  private final PreparedStatementCache statementCache;
+  private volatile PooledConnectionProxy proxyConnection;
+  private volatile long epoch;
+  private volatile long checkoutTimestamp;
   private long createdTimestamp;
   private long lastUsedTimestamp;
+  private long validatedTimestamp;
+  private volatile Throwable checkoutTrace;
+  private volatile boolean leakReported;
   private int connectionTypeCode;
-  private boolean valid;
+  private volatile boolean valid;
+  private volatile int state;
 
   /**
    * Constructor for SimplePooledConnection that uses the Connection and PooledDataSource passed in.
@@ -48,13 +56,28 @@ class PooledConnection implements InvocationHandler {
    * @param dataSource - the dataSource that the connection is from
    */
   public PooledConnection(Connection connection, PooledDataSource dataSource) {
+    this(connection, dataSource, null);
+  }
+
+  /**
+   * Constructor for a connection opened with the credentials of the given key.
+   *
+   * @param connection - the connection that is to be presented as a pooled connection
+   * @param dataSource - the dataSource that the connection is from
+   * @param key - the key of the credentials the connection was opened with
+   */
+  PooledConnection(Connection connection, PooledDataSource dataSource, ConnectionKey key) {
     this.hashCode = connection.hashCode();
     this.realConnection = connection;
     this.dataSource = dataSource;
+    this.key = key;
     this.createdTimestamp = System.currentTimeMillis();
     this.lastUsedTimestamp = System.currentTimeMillis();
+    this.validatedTimestamp = lastUsedTimestamp;
     this.valid = true;
-    this.proxyConnection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), IFACES, this);
+    this.weakReference = new WeakReference<>(this);
+    int statementCacheSize = dataSource == null ? 0 : dataSource.getPoolPreparedStatementCacheSize();
+    this.statementCache = statementCacheSize > 0 ? new PreparedStatementCache(statementCacheSize) : null;
   }
 
   /**
@@ -85,10 +108,69 @@ class PooledConnection implements InvocationHandler {
   /**
    * Getter for the proxy for the connection.
    *
-   * @return The proxy
+   * @return The proxy handed out by the current checkout, or null if the connection is not checked out
    */
   public Connection getProxyConnection() {
-    return proxyConnection;
+    PooledConnectionProxy proxy = proxyConnection;
+    return proxy != null && proxy.getEpoch() == epoch ? proxy : null;
+  }
+
+  /**
+   * Hands out the proxy for a new checkout of this connection.
+   * <p>
+   * This object is reused for the whole life of the physical connection. Each checkout is an epoch, and gets its own
+   * small proxy holding that epoch for good. The epoch moves on when the checkout ends, so a proxy fails for ever once
+   * it was closed or its connection was claimed as overdue, even after the connection was checked out again.
+   *
+   * @return The proxy
+   */
+  Connection issueProxyConnection() {
+    PooledConnectionProxy proxy = new PooledConnectionProxy(this, epoch);
+    proxyConnection = proxy;
+    return proxy;
+  }
+
+  /**
+   * Atomically ends the checkout the given proxy was handed out for.
+   *
+   * @param proxy - the proxy of the checkout to end
+   * @return true if the proxy was current, i.e. if the caller now owns the connection
+   */
+  boolean releaseProxyConnection(Connection proxy) {
+    if (!(proxy instanceof PooledConnectionProxy) || ((PooledConnectionProxy) proxy).getPooledConnection() != this) {
+      return false;
+    }
+    // the epochs only move forward, so the proxy of an earlier checkout never matches again
+    long proxyEpoch = ((PooledConnectionProxy) proxy).getEpoch();
+    return EPOCH_UPDATER.compareAndSet(this, proxyEpoch, proxyEpoch + 1);
+  }
+
+  /**
+   * Atomically ends the current checkout on behalf of the pool, so that the proxy kept by the holder fails.
+   *
+   * @return true if the connection was checked out, i.e. if the caller now owns the connection
+   */
+  boolean claimProxyConnection() {
+    return releaseProxyConnection(getProxyConnection());
+  }
+
+  /**
+   * Getter for a weak reference to this connection, created once so that it can be handed out without allocating.
+   *
+   * @return the weak reference
+   */
+  WeakReference<PooledConnection> getWeakReference() {
+    return weakReference;
+  }
+
+  /**
+   * Getter for the cache of the prepared statements of the real connection. The cached statements are closed with
+   * the real connection.
+   *
+   * @return the cache, or null if statements are not cached
+   */
+  PreparedStatementCache getStatementCache() {
+    return statementCache;
   }
 
   /**
@@ -100,6 +182,15 @@ class PooledConnection implements InvocationHandler {
     return realConnection == null ? 0 : realConnection.hashCode();
   }
 
+  /**
+   * Getter for the key of the credentials the connection was opened with.
+   *
+   * @return The key, or null if the connection was not opened by the pool
+   */
+  ConnectionKey getKey() {
+    return key;
+  }
+
   /**
    * Getter for the connection type (based on url + user + password).
    *
@@ -154,6 +245,66 @@ class PooledConnection implements InvocationHandler {
     this.lastUsedTimestamp = lastUsedTimestamp;
   }
 
+  /**
+   * Getter for the last time the connection was known to work, i.e. when it was opened, returned to the pool
+   * or successfully pinged.
+   *
+   * @return - the timestamp
+   */
+  public long getValidatedTimestamp() {
+    return validatedTimestamp;
+  }
+
+  /**
+   * Setter for the last time the connection was known to work.
+   *
+   * @param validatedTimestamp - the timestamp
+   */
+  public void setValidatedTimestamp(long validatedTimestamp) {
+    this.validatedTimestamp = validatedTimestamp;
+  }
+
+  /**
+   * Getter for the stack trace of the current checkout, recorded when leak detection is enabled.
+   *
+   * @return the stack trace, or null if none was recorded
+   */
+  Throwable getCheckoutTrace() {
+    return checkoutTrace;
+  }
+
+  /**
+   * Starts tracking a new checkout for leak detection.
+   *
+   * @param checkoutTrace - the stack trace of the checkout, or null if it was not sampled
+   */
+  void traceCheckout(Throwable checkoutTrace) {
+    this.checkoutTrace = checkoutTrace;
+    this.leakReported = false;
+  }
+
+  /**
+   * Marks the current checkout as reported as a possible leak.
+   *
+   * @return true if it was not reported yet
+   */
+  boolean markLeakReported() {
+    if (leakReported) {
+      return false;
+    }
+    leakReported = true;
+    return true;
+  }
+
+  /**
+   * Getter for the time since this connection was last known to work.
+   *
+   * @return - the time since the last validation
+   */
+  public long getTimeElapsedSinceValidation() {
+    return System.currentTimeMillis() - validatedTimestamp;
+  }
+
   /**
    * Getter for the time since this connection was last used.
    *
@@ -199,6 +350,35 @@ class PooledConnection implements InvocationHandler {
     return System.currentTimeMillis() - checkoutTimestamp;
   }
 
+  /**
+   * Getter for the state of this connection in the {@link ConnectionBag}.
+   *
+   * @return the state
+   */
+  int getState() {
+    return state;
+  }
+
+  /**
+   * Setter for the state of this connection in the {@link ConnectionBag}.
+   *
+   * @param state - the state
+   */
+  void setState(int state) {
+    this.state = state;
+  }
+
+  /**
+   * Atomically switches the state of this connection in the {@link ConnectionBag}.
+   *
+   * @param expect - the expected state
+   * @param update - the new state
+   * @return true if the state was switched
+   */
+  boolean compareAndSetState(int expect, int update) {
+    return STATE_UPDATER.compareAndSet(this, expect, update);
+  }
+
   @Override
   public int hashCode() {
     return hashCode;
@@ -222,37 +402,30 @@ class PooledConnection implements InvocationHandler {
   }
 
   /**
-   * Required for InvocationHandler implementation.
+   * Returns the connection to the pool on behalf of the given proxy.
    *
-   * @param proxy  - not used
-   * @param method - the method to be executed
-   * @param args   - the parameters to be passed to the method
-   * @see java.lang.reflect.InvocationHandler#invoke(Object, java.lang.reflect.Method, Object[])
+   * @param proxy - the proxy being closed
+   * @throws SQLException if the connection could not be returned
    */
-  @Override
-  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-    String methodName = method.getName();
-    if (CLOSE.hashCode() == methodName.hashCode() && CLOSE.equals(methodName)) {
+  void close(Connection proxy) throws SQLException {
+    // closing a proxy twice, or after the connection was claimed back, does nothing
+    if (releaseProxyConnection(proxy)) {
       dataSource.pushConnection(this);
-      return null;
-    }
-    try {
-      if (!Object.class.equals(method.getDeclaringClass())) {
-        // issue #579 toString() should never fail
-        // throw an SQLException instead of a Runtime
-        checkConnection();
-      }
-      return method.invoke(realConnection, args);
-    } catch (Throwable t) {
-      throw ExceptionUtil.unwrapThrowable(t);
     }
-
   }
 
-  private void checkConnection() throws SQLException {
-    if (!valid) {
+  /**
+   * Getter for the *real* connection on behalf of the given proxy.
+   *
+   * @param proxy - the proxy being used
+   * @return The connection
+   * @throws SQLException if the connection is invalid or the proxy is no longer current
+   */
+  Connection checkConnection(PooledConnectionProxy proxy) throws SQLException {
+    if (!valid || proxy.getEpoch() != epoch) {
       throw new SQLException("Error accessing PooledConnection. Connection is invalid.");
     }
+    return realConnection;
   }
 
 }
@@ -16,13 +16,21 @@
 package org.apache.ibatis.datasource.pooled;
 
 import java.io.PrintWriter;
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Proxy;
+import java.io.StringWriter;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import javax.sql.DataSource;
@@ -39,6 +47,8 @@ import org.apache.ibatis.logging.LogFactory;
 public class PooledDataSource implements DataSource {
 
   private static final Log log = LogFactory.getLog(PooledDataSource.class);
+  private static final PoolMetricsListener NO_METRICS = new PoolMetricsListener() {
+  };
 
   private final PoolState state = new PoolState(this);
 
@@ -53,45 +63,64 @@ public class PooledDataSource implements DataSource {
   protected String poolPingQuery = "NO PING QUERY SET";
   protected boolean poolPingEnabled;
   protected int poolPingConnectionsNotUsedFor;
-
-  private int expectedConnectionTypeCode;
+  protected boolean poolConcurrentMode;
+  protected int poolMaximumPendingConnections = 3;
+  protected int poolMinimumIdleConnections;
+  protected int poolMaximumLifetime;
+  protected int poolIdleTimeout;
+  protected int poolHousekeepingInterval;
+  protected boolean poolPingUseIsValid;
+  protected int poolPingTimeout;
+  protected int poolPingBypassWindow;
+  protected int poolLeakDetectionThreshold;
+  protected int poolLeakDetectionSampleRate = 1;
+  protected int poolPreparedStatementCacheSize;
+
+  private volatile int expectedConnectionTypeCode;
+  private volatile ConnectionKey defaultConnectionKey;
+  private volatile Map<ConnectionKey, ConnectionKey> connectionKeys;
+  private volatile Semaphore connectionCreationPermits = new Semaphore(poolMaximumPendingConnections, true);
+  private PoolHousekeeper housekeeper;
+  private volatile PoolMetricsListener metricsListener = NO_METRICS;
 
   public PooledDataSource() {
     dataSource = new UnpooledDataSource();
+    resetConnectionKeys();
   }
 
   public PooledDataSource(UnpooledDataSource dataSource) {
     this.dataSource = dataSource;
+    resetConnectionKeys();
   }
 
   public PooledDataSource(String driver, String url, String username, String password) {
     dataSource = new UnpooledDataSource(driver, url, username, password);
-    expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
+    resetConnectionKeys();
   }
 
   public PooledDataSource(String driver, String url, Properties driverProperties) {
     dataSource = new UnpooledDataSource(driver, url, driverProperties);
-    expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
+    resetConnectionKeys();
   }
 
   public PooledDataSource(ClassLoader driverClassLoader, String driver, String url, String username, String password) {
     dataSource = new UnpooledDataSource(driverClassLoader, driver, url, username, password);
-    expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
+    resetConnectionKeys();
   }
 
   public PooledDataSource(ClassLoader driverClassLoader, String driver, String url, Properties driverProperties) {
     dataSource = new UnpooledDataSource(driverClassLoader, driver, url, driverProperties);
-    expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
+    resetConnectionKeys();
   }
 
   @Override
   public Connection getConnection() throws SQLException {
-    return popConnection(dataSource.getUsername(), dataSource.getPassword()).getProxyConnection();
+    return popConnection(null, null, true).getProxyConnection();
   }
 
   @Override
   public Connection getConnection(String username, String password) throws SQLException {
-    return popConnection(username, password).getProxyConnection();
+    return popConnection(username, password, false).getProxyConnection();
   }
 
   @Override
@@ -116,37 +145,37 @@ public class PooledDataSource implements DataSource {
 
   public void setDriver(String driver) {
     dataSource.setDriver(driver);
-    forceCloseAll();
+    retireAllConnections();
   }
 
   public void setUrl(String url) {
     dataSource.setUrl(url);
-    forceCloseAll();
+    retireAllConnections();
   }
 
   public void setUsername(String username) {
     dataSource.setUsername(username);
-    forceCloseAll();
+    retireAllConnections();
   }
 
   public void setPassword(String password) {
     dataSource.setPassword(password);
-    forceCloseAll();
+    retireAllConnections();
   }
 
   public void setDefaultAutoCommit(boolean defaultAutoCommit) {
     dataSource.setAutoCommit(defaultAutoCommit);
-    forceCloseAll();
+    retireAllConnections();
   }
 
   public void setDefaultTransactionIsolationLevel(Integer defaultTransactionIsolationLevel) {
     dataSource.setDefaultTransactionIsolationLevel(defaultTransactionIsolationLevel);
-    forceCloseAll();
+    retireAllConnections();
   }
 
   public void setDriverProperties(Properties driverProps) {
     dataSource.setDriverProperties(driverProps);
-    forceCloseAll();
+    retireAllConnections();
   }
 
   /**
@@ -158,27 +187,32 @@ public class PooledDataSource implements DataSource {
    */
   public void setDefaultNetworkTimeout(Integer milliseconds) {
     dataSource.setDefaultNetworkTimeout(milliseconds);
-    forceCloseAll();
+    retireAllConnections();
   }
 
   /**
    * The maximum number of active connections.
+   * <p>
+   * The new limit applies immediately: excess idle connections are closed and excess active connections are
+   * closed when they are returned.
    *
    * @param poolMaximumActiveConnections The maximum number of active connections
    */
   public void setPoolMaximumActiveConnections(int poolMaximumActiveConnections) {
     this.poolMaximumActiveConnections = poolMaximumActiveConnections;
-    forceCloseAll();
+    trimIdleConnections();
   }
 
   /**
    * The maximum number of idle connections.
+   * <p>
+   * The new limit applies immediately: excess idle connections are closed.
    *
    * @param poolMaximumIdleConnections The maximum number of idle connections
    */
   public void setPoolMaximumIdleConnections(int poolMaximumIdleConnections) {
     this.poolMaximumIdleConnections = poolMaximumIdleConnections;
-    forceCloseAll();
+    trimIdleConnections();
   }
 
   /**
@@ -203,7 +237,6 @@ public class PooledDataSource implements DataSource {
    */
   public void setPoolMaximumCheckoutTime(int poolMaximumCheckoutTime) {
     this.poolMaximumCheckoutTime = poolMaximumCheckoutTime;
-    forceCloseAll();
   }
 
   /**
@@ -213,7 +246,6 @@ public class PooledDataSource implements DataSource {
    */
   public void setPoolTimeToWait(int poolTimeToWait) {
     this.poolTimeToWait = poolTimeToWait;
-    forceCloseAll();
   }
 
   /**
@@ -223,7 +255,6 @@ public class PooledDataSource implements DataSource {
    */
   public void setPoolPingQuery(String poolPingQuery) {
     this.poolPingQuery = poolPingQuery;
-    forceCloseAll();
   }
 
   /**
@@ -233,7 +264,6 @@ public class PooledDataSource implements DataSource {
    */
   public void setPoolPingEnabled(boolean poolPingEnabled) {
     this.poolPingEnabled = poolPingEnabled;
-    forceCloseAll();
   }
 
   /**
@@ -244,9 +274,170 @@ public class PooledDataSource implements DataSource {
    */
   public void setPoolPingConnectionsNotUsedFor(int milliseconds) {
     this.poolPingConnectionsNotUsedFor = milliseconds;
+  }
+
+  /**
+   * Determines if connections are checked out and returned without holding the pool monitor.
+   * <p>
+   * In concurrent mode a thread first gets back the connection it returned last, then any idle connection,
+   * and waiting threads are served in arrival order by the threads returning connections.
+   *
+   * @param poolConcurrentMode True to use the lock-free checkout path
+   * @since 3.5.2
+   */
+  public void setPoolConcurrentMode(boolean poolConcurrentMode) {
+    this.poolConcurrentMode = poolConcurrentMode;
     forceCloseAll();
   }
 
+  /**
+   * The maximum number of physical connections that can be opened at the same time.
+   * <p>
+   * New connections are opened without holding the pool lock, so threads returning or checking out idle
+   * connections never wait for a slow handshake. Zero or less means no limit.
+   *
+   * @param poolMaximumPendingConnections The maximum number of connections being opened concurrently
+   * @since 3.5.2
+   */
+  public void setPoolMaximumPendingConnections(int poolMaximumPendingConnections) {
+    this.poolMaximumPendingConnections = poolMaximumPendingConnections;
+    this.connectionCreationPermits = poolMaximumPendingConnections > 0 ? new Semaphore(poolMaximumPendingConnections, true) : null;
+  }
+
+  /**
+   * Determines if connections are checked with the JDBC 4 {@link Connection#isValid(int)} method
+   * instead of the ping query.
+   *
+   * @param poolPingUseIsValid True to ping with {@code Connection.isValid}
+   * @since 3.5.2
+   */
+  public void setPoolPingUseIsValid(boolean poolPingUseIsValid) {
+    this.poolPingUseIsValid = poolPingUseIsValid;
+  }
+
+  /**
+   * The number of seconds to wait for a ping to complete, zero means no limit.
+   *
+   * @param seconds the ping timeout
+   * @since 3.5.2
+   */
+  public void setPoolPingTimeout(int seconds) {
+    this.poolPingTimeout = seconds;
+  }
+
+  /**
+   * A connection that was returned to the pool or pinged less than this many milliseconds ago is not pinged again.
+   * When housekeeping is enabled, idle connections are pinged in the background before this window ends,
+   * so that checkouts do not have to.
+   *
+   * @param milliseconds the time a connection is trusted after it was known to work
+   * @since 3.5.2
+   */
+  public void setPoolPingBypassWindow(int milliseconds) {
+    this.poolPingBypassWindow = milliseconds;
+  }
+
+  /**
+   * Sets the listener notified of the checkouts, returns and other events of this pool.
+   *
+   * @param metricsListener the listener, or null to remove it
+   * @see PoolMetrics
+   * @since 3.5.2
+   */
+  public void setPoolMetricsListener(PoolMetricsListener metricsListener) {
+    this.metricsListener = metricsListener == null ? NO_METRICS : metricsListener;
+  }
+
+  /**
+   * The number of idle connections the housekeeping thread tries to keep in the pool.
+   * It is only maintained when {@link #setPoolHousekeepingInterval(int) housekeeping} is enabled.
+   *
+   * @param poolMinimumIdleConnections The minimum number of idle connections
+   * @since 3.5.2
+   */
+  public void setPoolMinimumIdleConnections(int poolMinimumIdleConnections) {
+    this.poolMinimumIdleConnections = poolMinimumIdleConnections;
+  }
+
+  /**
+   * The maximum time a connection can live in the pool. Older connections are closed when they are returned
+   * or found idle by the housekeeping thread. Each connection is retired up to 2.5% earlier, so connections
+   * opened together are not all replaced at once. Zero means no limit.
+   *
+   * @param milliseconds the maximum lifetime of a connection
+   * @since 3.5.2
+   */
+  public void setPoolMaximumLifetime(int milliseconds) {
+    this.poolMaximumLifetime = milliseconds;
+  }
+
+  /**
+   * The time after which an unused connection is closed by the housekeeping thread,
+   * as long as more than {@link #setPoolMinimumIdleConnections(int) the minimum} are idle. Zero means never.
+   *
+   * @param milliseconds the maximum idle time of a connection
+   * @since 3.5.2
+   */
+  public void setPoolIdleTimeout(int milliseconds) {
+    this.poolIdleTimeout = milliseconds;
+  }
+
+  /**
+   * The time after which a connection that is still checked out is reported as a possible leak, with the stack
+   * trace of its checkout. Reports are issued by the {@link #setPoolHousekeepingInterval(int) housekeeping} thread,
+   * once per checkout. Zero disables leak detection.
+   *
+   * @param milliseconds the time a connection can be held before it is reported
+   * @since 3.5.2
+   */
+  public void setPoolLeakDetectionThreshold(int milliseconds) {
+    this.poolLeakDetectionThreshold = milliseconds;
+  }
+
+  /**
+   * Records the stack trace of one in this many checkouts when leak detection is enabled,
+   * so that the cost of capturing it can be limited on busy pools.
+   *
+   * @param poolLeakDetectionSampleRate the sampling rate, 1 records every checkout
+   * @since 3.5.2
+   */
+  public void setPoolLeakDetectionSampleRate(int poolLeakDetectionSampleRate) {
+    this.poolLeakDetectionSampleRate = poolLeakDetectionSampleRate;
+  }
+
+  /**
+   * The number of prepared statements each physical connection keeps open for later checkouts, keyed by SQL, result
+   * set type and concurrency. Least recently used statements are closed beyond this number. Zero disables it.
+   * <p>
+   * Idle connections are closed and active ones are closed when they are returned, so that new connections are
+   * opened with the new cache size while the ongoing transactions complete.
+   *
+   * @param poolPreparedStatementCacheSize the maximum number of cached statements per connection
+   * @since 3.5.2
+   */
+  public void setPoolPreparedStatementCacheSize(int poolPreparedStatementCacheSize) {
+    this.poolPreparedStatementCacheSize = poolPreparedStatementCacheSize;
+    retireAllConnections();
+  }
+
+  /**
+   * Enables a background thread that fills the pool up to the minimum idle connections,
+   * then retires expired and idle connections at the given interval. Zero disables it.
+   *
+   * @param milliseconds the delay between two housekeeping runs
+   * @since 3.5.2
+   */
+  public synchronized void setPoolHousekeepingInterval(int milliseconds) {
+    this.poolHousekeepingInterval = milliseconds;
+    if (housekeeper != null) {
+      housekeeper.stop();
+      housekeeper = null;
+    }
+    if (milliseconds > 0) {
+      housekeeper = PoolHousekeeper.start(this, milliseconds);
+    }
+  }
+
   public String getDriver() {
     return dataSource.getDriver();
   }
@@ -314,12 +505,171 @@ public class PooledDataSource implements DataSource {
     return poolPingConnectionsNotUsedFor;
   }
 
+  /**
+   * @since 3.5.2
+   */
+  public boolean isPoolConcurrentMode() {
+    return poolConcurrentMode;
+  }
+
+  /**
+   * @since 3.5.2
+   */
+  public int getPoolMaximumPendingConnections() {
+    return poolMaximumPendingConnections;
+  }
+
+  /**
+   * @since 3.5.2
+   */
+  public int getPoolMinimumIdleConnections() {
+    return poolMinimumIdleConnections;
+  }
+
+  /**
+   * @since 3.5.2
+   */
+  public int getPoolMaximumLifetime() {
+    return poolMaximumLifetime;
+  }
+
+  /**
+   * @since 3.5.2
+   */
+  public int getPoolIdleTimeout() {
+    return poolIdleTimeout;
+  }
+
+  /**
+   * @since 3.5.2
+   */
+  public int getPoolHousekeepingInterval() {
+    return poolHousekeepingInterval;
+  }
+
+  /**
+   * @since 3.5.2
+   */
+  public PoolMetricsListener getPoolMetricsListener() {
+    return metricsListener == NO_METRICS ? null : metricsListener;
+  }
+
+  /**
+   * @since 3.5.2
+   */
+  public boolean isPoolPingUseIsValid() {
+    return poolPingUseIsValid;
+  }
+
+  /**
+   * @since 3.5.2
+   */
+  public int getPoolPingTimeout() {
+    return poolPingTimeout;
+  }
+
+  /**
+   * @since 3.5.2
+   */
+  public int getPoolPingBypassWindow() {
+    return poolPingBypassWindow;
+  }
+
+  /**
+   * @since 3.5.2
+   */
+  public int getPoolLeakDetectionThreshold() {
+    return poolLeakDetectionThreshold;
+  }
+
+  /**
+   * @since 3.5.2
+   */
+  public int getPoolLeakDetectionSampleRate() {
+    return poolLeakDetectionSampleRate;
+  }
+
+  /**
+   * @since 3.5.2
+   */
+  public int getPoolPreparedStatementCacheSize() {
+    return poolPreparedStatementCacheSize;
+  }
+
+  /**
+   * Closes all the idle connections and makes sure that the active ones are closed when they are returned, so that
+   * new checkouts get connections opened with the current configuration while the ongoing transactions complete.
+   */
+  private void retireAllConnections() {
+    List<PooledConnection> retired = new ArrayList<>();
+    synchronized (state) {
+      resetConnectionKeys();
+      retired.addAll(state.idleConnections);
+      state.idleConnections.clear();
+      // the retired connections free their slots
+      state.notifyAll();
+    }
+    ConnectionBag bag = state.connectionBag;
+    for (PooledConnection conn : bag.values()) {
+      if (conn.compareAndSetState(ConnectionBag.STATE_NOT_IN_USE, ConnectionBag.STATE_IN_USE)) {
+        bag.remove(conn);
+        bag.releaseSlot();
+        retired.add(conn);
+      }
+    }
+    closeRetiredConnections(retired);
+  }
+
+  /**
+   * Closes the idle connections that exceed the current pool limits.
+   */
+  private void trimIdleConnections() {
+    List<PooledConnection> retired = new ArrayList<>();
+    synchronized (state) {
+      while (!state.idleConnections.isEmpty() && (state.idleConnections.size() > poolMaximumIdleConnections
+          || countConnections() > poolMaximumActiveConnections)) {
+        retired.add(state.idleConnections.remove(0));
+      }
+      // the limit may have been raised
+      state.notifyAll();
+    }
+    ConnectionBag bag = state.connectionBag;
+    for (PooledConnection conn : bag.values()) {
+      if (bag.getCount(ConnectionBag.STATE_NOT_IN_USE) <= poolMaximumIdleConnections && bag.size() <= poolMaximumActiveConnections) {
+        break;
+      }
+      if (conn.compareAndSetState(ConnectionBag.STATE_NOT_IN_USE, ConnectionBag.STATE_IN_USE)) {
+        bag.remove(conn);
+        retired.add(conn);
+      }
+    }
+    // let the waiting threads see the new limit
+    for (int i = bag.getWaiterCount(); i > 0 && bag.size() < poolMaximumActiveConnections; i--) {
+      bag.releaseSlot();
+    }
+    closeRetiredConnections(retired);
+  }
+
+  private void closeRetiredConnections(List<PooledConnection> retired) {
+    for (PooledConnection conn : retired) {
+      conn.invalidate();
+      try {
+        conn.getRealConnection().close();
+      } catch (SQLException e) {
+        // ignore
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("Retired connection " + conn.getRealHashCode() + ".");
+      }
+    }
+  }
+
   /**
    * Closes all active and idle connections in the pool.
    */
   public void forceCloseAll() {
     synchronized (state) {
-      expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
+      resetConnectionKeys();
       for (int i = state.activeConnections.size(); i > 0; i--) {
         try {
           PooledConnection conn = state.activeConnections.remove(i - 1);
@@ -348,6 +698,21 @@ public class PooledDataSource implements DataSource {
           // ignore
         }
       }
+      for (PooledConnection conn : state.connectionBag.values()) {
+        try {
+          if (state.connectionBag.remove(conn)) {
+            conn.invalidate();
+
+            Connection realConn = conn.getRealConnection();
+            if (!realConn.getAutoCommit()) {
+              realConn.rollback();
+            }
+            realConn.close();
+          }
+        } catch (Exception e) {
+          // ignore
+        }
+      }
     }
     if (log.isDebugEnabled()) {
       log.debug("PooledDataSource forcefully closed/removed all connections.");
@@ -362,27 +727,70 @@ public class PooledDataSource implements DataSource {
     return ("" + url + username + password).hashCode();
   }
 
+  /**
+   * Forgets the keys of all the connections opened so far, so that none of them is pooled again.
+   */
+  private void resetConnectionKeys() {
+    expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
+    defaultConnectionKey = new ConnectionKey(dataSource.getUsername(), dataSource.getPassword());
+    connectionKeys = new ConcurrentHashMap<>();
+  }
+
+  private ConnectionKey getConnectionKey(String username, String password) {
+    ConnectionKey key = defaultConnectionKey;
+    if (key.matches(username, password)) {
+      return key;
+    }
+    key = new ConnectionKey(username, password);
+    ConnectionKey existing = connectionKeys.putIfAbsent(key, key);
+    return existing == null ? key : existing;
+  }
+
+  /**
+   * Gets the key to check out a connection with. It must be read again after each wait, as reconfiguring the pool
+   * replaces all the keys, and the default credentials along with them.
+   */
+  private ConnectionKey getConnectionKey(String username, String password, boolean defaultCredentials) {
+    return defaultCredentials ? defaultConnectionKey : getConnectionKey(username, password);
+  }
+
+  private boolean isCurrentKey(ConnectionKey key) {
+    return key != null && (key == defaultConnectionKey || connectionKeys.get(key) == key);
+  }
+
   protected void pushConnection(PooledConnection conn) throws SQLException {
+    if (poolConcurrentMode) {
+      pushConnectionConcurrently(conn);
+      return;
+    }
 
+    PooledConnection evicted = null;
     synchronized (state) {
       state.activeConnections.remove(conn);
       if (conn.isValid()) {
-        if (state.idleConnections.size() < poolMaximumIdleConnections && conn.getConnectionTypeCode() == expectedConnectionTypeCode) {
+        boolean reusable = isCurrentKey(conn.getKey()) && !isExpired(conn)
+            && countConnections() < poolMaximumActiveConnections;
+        if (reusable && state.idleConnections.size() >= poolMaximumIdleConnections) {
+          // make room if another key holds more than its share of the idle connections
+          evicted = selectIdleConnectionToEvict(state.idleConnections, conn.getKey());
+          reusable = evicted != null && state.idleConnections.remove(evicted);
+        }
+        if (reusable) {
           state.accumulatedCheckoutTime += conn.getCheckoutTime();
+          metricsListener.connectionReleased(TimeUnit.MILLISECONDS.toNanos(conn.getCheckoutTime()));
           if (!conn.getRealConnection().getAutoCommit()) {
             conn.getRealConnection().rollback();
           }
-          PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this);
-          state.idleConnections.add(newConn);
-          newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
-          newConn.setLastUsedTimestamp(conn.getLastUsedTimestamp());
-          conn.invalidate();
+          conn.setCheckoutTimestamp(0);
+          conn.setValidatedTimestamp(System.currentTimeMillis());
+          state.idleConnections.add(conn);
           if (log.isDebugEnabled()) {
-            log.debug("Returned connection " + newConn.getRealHashCode() + " to pool.");
+            log.debug("Returned connection " + conn.getRealHashCode() + " to pool.");
           }
           state.notifyAll();
         } else {
           state.accumulatedCheckoutTime += conn.getCheckoutTime();
+          metricsListener.connectionReleased(TimeUnit.MILLISECONDS.toNanos(conn.getCheckoutTime()));
           if (!conn.getRealConnection().getAutoCommit()) {
             conn.getRealConnection().rollback();
           }
@@ -399,39 +807,107 @@ public class PooledDataSource implements DataSource {
         state.badConnectionCount++;
       }
     }
+    if (evicted != null) {
+      closeEvictedConnection(evicted);
+    }
   }
 
-  private PooledConnection popConnection(String username, String password) throws SQLException {
+  private void pushConnectionConcurrently(PooledConnection conn) throws SQLException {
+    ConnectionBag bag = state.connectionBag;
+    if (!conn.isValid()) {
+      discardConnection(bag, conn);
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+      }
+      state.concurrentBadConnectionCount.increment();
+      return;
+    }
+    state.concurrentAccumulatedCheckoutTime.add(conn.getCheckoutTime());
+    metricsListener.connectionReleased(TimeUnit.MILLISECONDS.toNanos(conn.getCheckoutTime()));
+    try {
+      if (!conn.getRealConnection().getAutoCommit()) {
+        conn.getRealConnection().rollback();
+      }
+    } catch (SQLException e) {
+      discardConnection(bag, conn);
+      throw e;
+    }
+    ConnectionKey key = conn.getKey();
+    // a connection that a thread is already waiting for never becomes idle, so it does not count against the limit,
+    // while a connection that only threads waiting for other keys could take is better closed to free its slot
+    if (isCurrentKey(key) && !isExpired(conn) && bag.size() <= poolMaximumActiveConnections && (bag.hasWaiters(key) || !bag.hasWaiters()
+        && (bag.getCount(ConnectionBag.STATE_NOT_IN_USE) < poolMaximumIdleConnections || evictIdleConnection(bag, key)))) {
+      conn.setCheckoutTimestamp(0);
+      conn.setValidatedTimestamp(System.currentTimeMillis());
+      bag.requite(conn);
+      if (log.isDebugEnabled()) {
+        log.debug("Returned connection " + conn.getRealHashCode() + " to pool.");
+      }
+    } else {
+      bag.remove(conn);
+      bag.releaseSlot();
+      conn.getRealConnection().close();
+      if (log.isDebugEnabled()) {
+        log.debug("Closed connection " + conn.getRealHashCode() + ".");
+      }
+      conn.invalidate();
+    }
+  }
+
+  private PooledConnection popConnection(String username, String password, boolean defaultCredentials) throws SQLException {
+    if (poolConcurrentMode) {
+      return popConnectionConcurrently(username, password, defaultCredentials);
+    }
     boolean countedWait = false;
     PooledConnection conn = null;
+    PooledConnection createdConn = null;
     long t = System.currentTimeMillis();
+    long startNanos = System.nanoTime();
     int localBadConnectionCount = 0;
 
     while (conn == null) {
+      boolean reserved = false;
+      PooledConnection evicted = null;
+      ConnectionKey key;
       synchronized (state) {
-        if (!state.idleConnections.isEmpty()) {
+        key = getConnectionKey(username, password, defaultCredentials);
+        if (createdConn != null) {
+          // Connection opened outside of the lock on the previous pass
+          state.pendingConnectionCount--;
+          if (createdConn.getKey() == key) {
+            conn = createdConn;
+          } else {
+            // opened with the credentials of a configuration replaced meanwhile
+            evicted = createdConn;
+          }
+          createdConn = null;
+        } else if ((conn = removeIdleConnection(key)) != null) {
           // Pool has available connection
-          conn = state.idleConnections.remove(0);
           if (log.isDebugEnabled()) {
             log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
           }
         } else {
           // Pool does not have available connection
-          if (state.activeConnections.size() < poolMaximumActiveConnections) {
-            // Can create new connection
-            conn = new PooledConnection(dataSource.getConnection(), this);
-            if (log.isDebugEnabled()) {
-              log.debug("Created connection " + conn.getRealHashCode() + ".");
-            }
+          if (countConnections() < poolMaximumActiveConnections) {
+            // Can create new connection, reserve a slot and open it outside of the lock
+            state.pendingConnectionCount++;
+            reserved = true;
+          } else if ((evicted = selectIdleConnectionToEvict(state.idleConnections, key)) != null) {
+            // Can replace an idle connection of another key
+            state.idleConnections.remove(evicted);
+            state.pendingConnectionCount++;
+            reserved = true;
           } else {
             // Cannot create new connection
-            PooledConnection oldestActiveConnection = state.activeConnections.get(0);
-            long longestCheckoutTime = oldestActiveConnection.getCheckoutTime();
-            if (longestCheckoutTime > poolMaximumCheckoutTime) {
-              // Can claim overdue connection
+            PooledConnection oldestActiveConnection = state.activeConnections.isEmpty() ? null : state.activeConnections.get(0);
+            long longestCheckoutTime = oldestActiveConnection == null ? 0 : oldestActiveConnection.getCheckoutTime();
+            if (oldestActiveConnection != null && longestCheckoutTime > poolMaximumCheckoutTime
+                && oldestActiveConnection.claimProxyConnection()) {
+              // Can claim overdue connection, its holder can no longer use or return it
               state.claimedOverdueConnectionCount++;
               state.accumulatedCheckoutTimeOfOverdueConnections += longestCheckoutTime;
               state.accumulatedCheckoutTime += longestCheckoutTime;
+              metricsListener.connectionLeaked(TimeUnit.MILLISECONDS.toNanos(longestCheckoutTime));
               state.activeConnections.remove(oldestActiveConnection);
               if (!oldestActiveConnection.getRealConnection().getAutoCommit()) {
                 try {
@@ -440,20 +916,25 @@ public class PooledDataSource implements DataSource {
                   /*
                      Just log a message for debug and continue to execute the following
                      statement like nothing happened.
-                     Wrap the bad connection with a new PooledConnection, this will help
-                     to not interrupt current executing thread and give current thread a
-                     chance to join the next competition for another valid/good database
-                     connection. At the end of this loop, bad {@link @conn} will be set as null.
+                     Keep the bad connection, this will help to not interrupt current
+                     executing thread and give current thread a chance to join the next
+                     competition for another valid/good database connection. At the end
+                     of this loop, bad {@link @conn} will be set as null.
                    */
                   log.debug("Bad connection. Could not roll back");
                 }
               }
-              conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this);
-              conn.setCreatedTimestamp(oldestActiveConnection.getCreatedTimestamp());
-              conn.setLastUsedTimestamp(oldestActiveConnection.getLastUsedTimestamp());
-              oldestActiveConnection.invalidate();
               if (log.isDebugEnabled()) {
-                log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
+                log.debug("Claimed overdue connection " + oldestActiveConnection.getRealHashCode() + ".");
+              }
+              reportLeak(oldestActiveConnection, longestCheckoutTime, true);
+              if (oldestActiveConnection.getKey() == key) {
+                conn = oldestActiveConnection;
+              } else {
+                // opened for another key, replace it
+                evicted = oldestActiveConnection;
+                state.pendingConnectionCount++;
+                reserved = true;
               }
             } else {
               // Must wait
@@ -466,8 +947,17 @@ public class PooledDataSource implements DataSource {
                   log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
                 }
                 long wt = System.currentTimeMillis();
-                state.wait(poolTimeToWait);
-                state.accumulatedWaitTime += System.currentTimeMillis() - wt;
+                state.pendingRequestCount++;
+                try {
+                  state.wait(poolTimeToWait);
+                } finally {
+                  state.pendingRequestCount--;
+                }
+                long waited = System.currentTimeMillis() - wt;
+                state.accumulatedWaitTime += waited;
+                if (waited >= poolTimeToWait) {
+                  metricsListener.connectionTimedOut();
+                }
               } catch (InterruptedException e) {
                 break;
               }
@@ -480,11 +970,14 @@ public class PooledDataSource implements DataSource {
             if (!conn.getRealConnection().getAutoCommit()) {
               conn.getRealConnection().rollback();
             }
-            conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
+            conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), key.getUsername(), key.getPassword()));
             conn.setCheckoutTimestamp(System.currentTimeMillis());
             conn.setLastUsedTimestamp(System.currentTimeMillis());
+            traceCheckout(conn);
+            conn.issueProxyConnection();
             state.activeConnections.add(conn);
             state.requestCount++;
+            metricsListener.connectionAcquired(System.nanoTime() - startNanos);
             state.accumulatedRequestTime += System.currentTimeMillis() - t;
           } else {
             if (log.isDebugEnabled()) {
@@ -502,7 +995,23 @@ public class PooledDataSource implements DataSource {
           }
         }
       }
-
+      if (evicted != null) {
+        closeEvictedConnection(evicted);
+      }
+      if (reserved) {
+        try {
+          createdConn = new PooledConnection(openConnection(key), this, key);
+        } catch (InterruptedException e) {
+          cancelPendingConnection();
+          break;
+        } catch (SQLException | RuntimeException e) {
+          cancelPendingConnection();
+          throw e;
+        }
+        if (log.isDebugEnabled()) {
+          log.debug("Created connection " + createdConn.getRealHashCode() + ".");
+        }
+      }
     }
 
     if (conn == null) {
@@ -515,6 +1024,519 @@ public class PooledDataSource implements DataSource {
     return conn;
   }
 
+  private PooledConnection popConnectionConcurrently(String username, String password, boolean defaultCredentials) throws SQLException {
+    ConnectionBag bag = state.connectionBag;
+    boolean countedWait = false;
+    long t = System.currentTimeMillis();
+    long startNanos = System.nanoTime();
+    int localBadConnectionCount = 0;
+
+    while (true) {
+      ConnectionKey key = getConnectionKey(username, password, defaultCredentials);
+      PooledConnection conn = bag.borrow(key);
+      if (conn != null) {
+        if (log.isDebugEnabled()) {
+          log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
+        }
+      } else if (bag.reserve(poolMaximumActiveConnections)) {
+        try {
+          conn = new PooledConnection(openConnection(key), this, key);
+        } catch (InterruptedException e) {
+          bag.cancelReservation();
+          break;
+        } catch (SQLException | RuntimeException e) {
+          bag.cancelReservation();
+          throw e;
+        }
+        bag.add(conn);
+        if (log.isDebugEnabled()) {
+          log.debug("Created connection " + conn.getRealHashCode() + ".");
+        }
+        if (!isCurrentKey(key)) {
+          // opened with the credentials of a configuration replaced meanwhile
+          discardConnection(bag, conn);
+          continue;
+        }
+      } else if (evictIdleConnection(bag, key)) {
+        // replaced an idle connection of another key, its slot is free now
+        continue;
+      } else {
+        conn = claimOverdueConnection(bag);
+        if (conn != null && conn.getKey() != key) {
+          // opened for another key, replace it
+          bag.remove(conn);
+          closeEvictedConnection(conn);
+          continue;
+        }
+        if (conn == null) {
+          if (!countedWait) {
+            state.concurrentHadToWaitCount.increment();
+            countedWait = true;
+          }
+          if (log.isDebugEnabled()) {
+            log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
+          }
+          long wt = System.currentTimeMillis();
+          long waited;
+          try {
+            conn = bag.poll(key, poolTimeToWait);
+          } catch (InterruptedException e) {
+            break;
+          } finally {
+            waited = System.currentTimeMillis() - wt;
+            state.concurrentAccumulatedWaitTime.add(waited);
+          }
+          if (conn == null) {
+            if (waited >= poolTimeToWait) {
+              metricsListener.connectionTimedOut();
+            }
+            continue;
+          }
+        }
+      }
+      // ping to server and check the connection is valid or not
+      if (conn.isValid()) {
+        try {
+          if (!conn.getRealConnection().getAutoCommit()) {
+            conn.getRealConnection().rollback();
+          }
+        } catch (SQLException e) {
+          discardConnection(bag, conn);
+          throw e;
+        }
+        conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), key.getUsername(), key.getPassword()));
+        // the checkout must be complete before the proxy is published, or it could be claimed as overdue
+        conn.setCheckoutTimestamp(System.currentTimeMillis());
+        conn.setLastUsedTimestamp(System.currentTimeMillis());
+        traceCheckout(conn);
+        conn.issueProxyConnection();
+        state.concurrentRequestCount.increment();
+        metricsListener.connectionAcquired(System.nanoTime() - startNanos);
+        state.concurrentAccumulatedRequestTime.add(System.currentTimeMillis() - t);
+        return conn;
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
+      }
+      discardConnection(bag, conn);
+      state.concurrentBadConnectionCount.increment();
+      localBadConnectionCount++;
+      if (localBadConnectionCount > (poolMaximumIdleConnections + poolMaximumLocalBadConnectionTolerance)) {
+        if (log.isDebugEnabled()) {
+          log.debug("PooledDataSource: Could not get a good connection to the database.");
+        }
+        throw new SQLException("PooledDataSource: Could not get a good connection to the database.");
+      }
+    }
+
+    if (log.isDebugEnabled()) {
+      log.debug("PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+    }
+    throw new SQLException("PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+  }
+
+  /**
+   * Runs one round of housekeeping: retires expired and long unused idle connections,
+   * then opens connections until the minimum number of idle connections is reached.
+   */
+  void housekeep() throws SQLException, InterruptedException {
+    if (poolLeakDetectionThreshold > 0) {
+      detectLeakedConnections();
+    }
+    if (poolPingEnabled) {
+      validateIdleConnections();
+    }
+    List<PooledConnection> retired = new ArrayList<>();
+    if (poolConcurrentMode) {
+      ConnectionBag bag = state.connectionBag;
+      int idleCount = bag.getCount(ConnectionBag.STATE_NOT_IN_USE);
+      for (PooledConnection conn : bag.values()) {
+        if (conn.getState() == ConnectionBag.STATE_NOT_IN_USE && isRetirable(conn, idleCount)
+            && conn.compareAndSetState(ConnectionBag.STATE_NOT_IN_USE, ConnectionBag.STATE_IN_USE)) {
+          bag.remove(conn);
+          bag.releaseSlot();
+          idleCount--;
+          retired.add(conn);
+        }
+      }
+    } else {
+      synchronized (state) {
+        int idleCount = state.idleConnections.size();
+        for (Iterator<PooledConnection> it = state.idleConnections.iterator(); it.hasNext();) {
+          PooledConnection conn = it.next();
+          if (isRetirable(conn, idleCount)) {
+            it.remove();
+            idleCount--;
+            retired.add(conn);
+          }
+        }
+      }
+    }
+    closeRetiredConnections(retired);
+    fillIdleConnections();
+  }
+
+  /**
+   * Reports the connections checked out for longer than the leak detection threshold.
+   */
+  private void detectLeakedConnections() {
+    List<PooledConnection> checkedOut = new ArrayList<>();
+    if (poolConcurrentMode) {
+      for (PooledConnection conn : state.connectionBag.values()) {
+        if (conn.getState() == ConnectionBag.STATE_IN_USE && conn.getCheckoutTimestamp() > 0) {
+          checkedOut.add(conn);
+        }
+      }
+    } else {
+      synchronized (state) {
+        checkedOut.addAll(state.activeConnections);
+      }
+    }
+    for (PooledConnection conn : checkedOut) {
+      long checkoutTime = conn.getCheckoutTime();
+      if (conn.getProxyConnection() != null && checkoutTime > poolLeakDetectionThreshold && conn.markLeakReported()) {
+        state.suspectedLeakCount.increment();
+        reportLeak(conn, checkoutTime, false);
+      }
+    }
+  }
+
+  private void traceCheckout(PooledConnection conn) {
+    Throwable trace = null;
+    if (poolLeakDetectionThreshold > 0
+        && (poolLeakDetectionSampleRate <= 1 || ThreadLocalRandom.current().nextInt(poolLeakDetectionSampleRate) == 0)) {
+      trace = new Exception("Connection checked out by thread " + Thread.currentThread().getName());
+    }
+    conn.traceCheckout(trace);
+  }
+
+  private void reportLeak(PooledConnection conn, long checkoutTime, boolean claimed) {
+    Throwable trace = conn.getCheckoutTrace();
+    if (!claimed || trace != null) {
+      StringBuilder message = new StringBuilder();
+      message.append(claimed ? "Claimed overdue connection " : "Possible leak of connection ").append(conn.getRealHashCode())
+          .append(", checked out for ").append(checkoutTime).append(" milliseconds.");
+      if (trace != null) {
+        StringWriter stackTrace = new StringWriter();
+        trace.printStackTrace(new PrintWriter(stackTrace));
+        message.append(System.lineSeparator()).append(stackTrace.toString().trim());
+      }
+      log.warn(message.toString());
+    }
+  }
+
+  /**
+   * Pings all the idle connections that would otherwise be pinged at checkout soon, and discards the bad ones.
+   */
+  private void validateIdleConnections() {
+    // ping early enough that a checkout happening before the next run finds the connection within the window
+    long bypassWindow = Math.max(0, poolPingBypassWindow - poolHousekeepingInterval);
+    List<PooledConnection> checked = new ArrayList<>();
+    if (poolConcurrentMode) {
+      for (PooledConnection conn : state.connectionBag.values()) {
+        if (conn.getState() == ConnectionBag.STATE_NOT_IN_USE && isPingRequired(conn, bypassWindow)
+            && conn.compareAndSetState(ConnectionBag.STATE_NOT_IN_USE, ConnectionBag.STATE_IN_USE)) {
+          checked.add(conn);
+        }
+      }
+    } else {
+      synchronized (state) {
+        for (Iterator<PooledConnection> it = state.idleConnections.iterator(); it.hasNext();) {
+          PooledConnection conn = it.next();
+          if (isPingRequired(conn, bypassWindow)) {
+            it.remove();
+            checked.add(conn);
+          }
+        }
+        // the connections being pinged still hold their slots
+        state.validatingConnectionCount += checked.size();
+      }
+    }
+    if (checked.isEmpty()) {
+      return;
+    }
+    List<PooledConnection> good = new ArrayList<>(checked.size());
+    int badCount = 0;
+    for (PooledConnection conn : checked) {
+      if (executePing(conn)) {
+        good.add(conn);
+      } else {
+        if (log.isDebugEnabled()) {
+          log.debug("A bad connection (" + conn.getRealHashCode() + ") was found in the pool, discarding connection.");
+        }
+        if (poolConcurrentMode) {
+          discardConnection(state.connectionBag, conn);
+        } else {
+          conn.invalidate();
+        }
+        badCount++;
+      }
+    }
+    if (poolConcurrentMode) {
+      for (PooledConnection conn : good) {
+        if (isCurrentKey(conn.getKey())) {
+          state.connectionBag.requite(conn);
+        } else {
+          // retired while it was pinged
+          discardConnection(state.connectionBag, conn);
+        }
+      }
+      state.concurrentBadConnectionCount.add(badCount);
+    } else {
+      List<PooledConnection> retired = new ArrayList<>();
+      synchronized (state) {
+        state.validatingConnectionCount -= checked.size();
+        for (PooledConnection conn : good) {
+          // the pool may have been resized or retired while the connections were pinged
+          if (isCurrentKey(conn.getKey()) && state.idleConnections.size() < poolMaximumIdleConnections
+              && countConnections() < poolMaximumActiveConnections) {
+            state.idleConnections.add(conn);
+          } else {
+            retired.add(conn);
+          }
+        }
+        state.badConnectionCount += badCount;
+        state.notifyAll();
+      }
+      closeRetiredConnections(retired);
+    }
+  }
+
+  private void fillIdleConnections() throws SQLException, InterruptedException {
+    while (true) {
+      PooledConnection conn;
+      if (poolConcurrentMode) {
+        ConnectionBag bag = state.connectionBag;
+        if (bag.getCount(ConnectionBag.STATE_NOT_IN_USE) >= poolMinimumIdleConnections
+            || !bag.reserve(poolMaximumActiveConnections)) {
+          return;
+        }
+        try {
+          conn = new PooledConnection(openConnection(defaultConnectionKey), this, defaultConnectionKey);
+        } catch (SQLException | RuntimeException | InterruptedException e) {
+          bag.cancelReservation();
+          throw e;
+        }
+        conn.setConnectionTypeCode(expectedConnectionTypeCode);
+        bag.add(conn);
+        bag.requite(conn);
+      } else {
+        synchronized (state) {
+          int idleCount = state.idleConnections.size() + state.pendingConnectionCount;
+          if (idleCount >= poolMinimumIdleConnections
+              || countConnections() >= poolMaximumActiveConnections) {
+            return;
+          }
+          state.pendingConnectionCount++;
+        }
+        try {
+          conn = new PooledConnection(openConnection(defaultConnectionKey), this, defaultConnectionKey);
+        } catch (SQLException | RuntimeException | InterruptedException e) {
+          cancelPendingConnection();
+          throw e;
+        }
+        conn.setConnectionTypeCode(expectedConnectionTypeCode);
+        synchronized (state) {
+          state.pendingConnectionCount--;
+          state.idleConnections.add(conn);
+          state.notifyAll();
+        }
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("Created idle connection " + conn.getRealHashCode() + ".");
+      }
+    }
+  }
+
+  private boolean isRetirable(PooledConnection conn, int idleCount) {
+    return isExpired(conn)
+        || (poolIdleTimeout > 0 && idleCount > poolMinimumIdleConnections && conn.getTimeElapsedSinceLastUse() > poolIdleTimeout);
+  }
+
+  private boolean isExpired(PooledConnection conn) {
+    if (poolMaximumLifetime <= 0) {
+      return false;
+    }
+    // spread the retirement of connections opened together over the last 2.5% of their lifetime
+    long jitter = Math.floorMod(conn.getRealHashCode(), poolMaximumLifetime / 40 + 1);
+    return conn.getAge() >= poolMaximumLifetime - jitter;
+  }
+
+  /**
+   * Opens a physical connection with the credentials of the given key, waiting while too many connections are already
+   * being opened, if their number is limited.
+   */
+  private Connection openConnection(ConnectionKey key) throws SQLException, InterruptedException {
+    state.openingConnectionCount.incrementAndGet();
+    try {
+      Semaphore permits = connectionCreationPermits;
+      if (permits == null) {
+        return createConnection(key);
+      }
+      permits.acquire();
+      try {
+        return createConnection(key);
+      } finally {
+        permits.release();
+      }
+    } finally {
+      state.openingConnectionCount.decrementAndGet();
+    }
+  }
+
+  private Connection createConnection(ConnectionKey key) throws SQLException {
+    long start = System.nanoTime();
+    Connection connection = dataSource.getConnection(key.getUsername(), key.getPassword());
+    metricsListener.connectionCreated(System.nanoTime() - start);
+    return connection;
+  }
+
+  /**
+   * Removes the first idle connection of the given key, which is the least recently returned one.
+   */
+  private PooledConnection removeIdleConnection(ConnectionKey key) {
+    for (int i = 0; i < state.idleConnections.size(); i++) {
+      if (state.idleConnections.get(i).getKey() == key) {
+        return state.idleConnections.remove(i);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Selects the idle connection to close so that a connection of the given key can be kept or opened. The idle
+   * connections are shared fairly: only the key holding the most idle connections gives one up, its least recently
+   * used, and only if it holds more than the given key.
+   *
+   * @param idleConnections - the idle connections
+   * @param key - the key that needs room
+   * @return the connection to close, or null if the given key already has its share
+   */
+  private static PooledConnection selectIdleConnectionToEvict(List<PooledConnection> idleConnections, ConnectionKey key) {
+    Map<ConnectionKey, Integer> idleCounts = new HashMap<>();
+    for (PooledConnection conn : idleConnections) {
+      idleCounts.merge(conn.getKey(), 1, Integer::sum);
+    }
+    int keyIdleCount = idleCounts.getOrDefault(key, 0);
+    PooledConnection evicted = null;
+    int evictedIdleCount = keyIdleCount;
+    for (PooledConnection conn : idleConnections) {
+      int idleCount = idleCounts.get(conn.getKey());
+      if (conn.getKey() != key && (idleCount > evictedIdleCount || idleCount == evictedIdleCount && evicted != null
+          && conn.getLastUsedTimestamp() < evicted.getLastUsedTimestamp())) {
+        evicted = conn;
+        evictedIdleCount = idleCount;
+      }
+    }
+    return evicted;
+  }
+
+  /**
+   * Closes an idle connection of another key than the given one if that key holds more than its share of the idle
+   * connections, see {@link #selectIdleConnectionToEvict(List, ConnectionKey)}.
+   *
+   * @return true if a connection was closed, which freed its slot
+   */
+  private boolean evictIdleConnection(ConnectionBag bag, ConnectionKey key) {
+    List<PooledConnection> idleConnections = new ArrayList<>();
+    for (PooledConnection conn : bag.values()) {
+      if (conn.getState() == ConnectionBag.STATE_NOT_IN_USE) {
+        idleConnections.add(conn);
+      }
+    }
+    PooledConnection evicted = selectIdleConnectionToEvict(idleConnections, key);
+    if (evicted == null || !evicted.compareAndSetState(ConnectionBag.STATE_NOT_IN_USE, ConnectionBag.STATE_IN_USE)) {
+      return false;
+    }
+    bag.remove(evicted);
+    closeEvictedConnection(evicted);
+    return true;
+  }
+
+  private void closeEvictedConnection(PooledConnection conn) {
+    conn.invalidate();
+    try {
+      conn.getRealConnection().close();
+    } catch (SQLException e) {
+      // ignore
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Evicted connection " + conn.getRealHashCode() + ".");
+    }
+  }
+
+  /**
+   * Removes a connection that cannot be used any more from the bag and closes it, letting a waiting thread use its
+   * slot.
+   */
+  private void discardConnection(ConnectionBag bag, PooledConnection conn) {
+    if (bag.remove(conn)) {
+      bag.releaseSlot();
+    }
+    conn.invalidate();
+    try {
+      conn.getRealConnection().close();
+    } catch (SQLException e) {
+      // ignore
+    }
+  }
+
+  /**
+   * @return the number of connections held by the pool in synchronous mode, including the ones being opened or
+   *         validated outside of the lock
+   */
+  private int countConnections() {
+    return state.activeConnections.size() + state.idleConnections.size() + state.pendingConnectionCount
+        + state.validatingConnectionCount;
+  }
+
+  private void cancelPendingConnection() {
+    synchronized (state) {
+      state.pendingConnectionCount--;
+      // the slot is free again, let a waiting thread take it
+      state.notifyAll();
+    }
+  }
+
+  private PooledConnection claimOverdueConnection(ConnectionBag bag) {
+    PooledConnection oldestActiveConnection = null;
+    for (PooledConnection conn : bag.values()) {
+      // a zero checkout timestamp means the connection is still being checked out
+      if (conn.getState() == ConnectionBag.STATE_IN_USE && conn.getCheckoutTimestamp() > 0
+          && (oldestActiveConnection == null || conn.getCheckoutTimestamp() < oldestActiveConnection.getCheckoutTimestamp())) {
+        oldestActiveConnection = conn;
+      }
+    }
+    if (oldestActiveConnection == null) {
+      return null;
+    }
+    long longestCheckoutTime = oldestActiveConnection.getCheckoutTime();
+    // claiming the checkout guarantees that the holder can no longer use or return the connection
+    if (longestCheckoutTime <= poolMaximumCheckoutTime
+        || !oldestActiveConnection.claimProxyConnection()) {
+      return null;
+    }
+    // not overdue any more for the other threads, until this thread checks it out again
+    oldestActiveConnection.setCheckoutTimestamp(0);
+    state.concurrentClaimedOverdueConnectionCount.increment();
+    state.concurrentAccumulatedCheckoutTimeOfOverdueConnections.add(longestCheckoutTime);
+    state.concurrentAccumulatedCheckoutTime.add(longestCheckoutTime);
+    metricsListener.connectionLeaked(TimeUnit.MILLISECONDS.toNanos(longestCheckoutTime));
+    try {
+      if (!oldestActiveConnection.getRealConnection().getAutoCommit()) {
+        oldestActiveConnection.getRealConnection().rollback();
+      }
+    } catch (SQLException e) {
+      // the connection is validated before it is handed out, see popConnection
+      log.debug("Bad connection. Could not roll back");
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Claimed overdue connection " + oldestActiveConnection.getRealHashCode() + ".");
+    }
+    reportLeak(oldestActiveConnection, longestCheckoutTime, true);
+    return oldestActiveConnection;
+  }
+
   /**
    * Method to check to see if a connection is still usable
    *
@@ -535,40 +1557,65 @@ public class PooledDataSource implements DataSource {
 
     if (result) {
       if (poolPingEnabled) {
-        if (poolPingConnectionsNotUsedFor >= 0 && conn.getTimeElapsedSinceLastUse() > poolPingConnectionsNotUsedFor) {
-          try {
-            if (log.isDebugEnabled()) {
-              log.debug("Testing connection " + conn.getRealHashCode() + " ...");
-            }
-            Connection realConn = conn.getRealConnection();
-            try (Statement statement = realConn.createStatement()) {
-              statement.executeQuery(poolPingQuery).close();
-            }
-            if (!realConn.getAutoCommit()) {
-              realConn.rollback();
-            }
-            result = true;
-            if (log.isDebugEnabled()) {
-              log.debug("Connection " + conn.getRealHashCode() + " is GOOD!");
-            }
-          } catch (Exception e) {
-            log.warn("Execution of ping query '" + poolPingQuery + "' failed: " + e.getMessage());
-            try {
-              conn.getRealConnection().close();
-            } catch (Exception e2) {
-              //ignore
-            }
-            result = false;
-            if (log.isDebugEnabled()) {
-              log.debug("Connection " + conn.getRealHashCode() + " is BAD: " + e.getMessage());
-            }
+        if (isPingRequired(conn, poolPingBypassWindow)) {
+          result = executePing(conn);
+        }
+      }
+    }
+    return result;
+  }
+
+  private boolean executePing(PooledConnection conn) {
+    boolean result;
+    try {
+      if (log.isDebugEnabled()) {
+        log.debug("Testing connection " + conn.getRealHashCode() + " ...");
+      }
+      Connection realConn = conn.getRealConnection();
+      if (poolPingUseIsValid) {
+        if (!realConn.isValid(poolPingTimeout)) {
+          throw new SQLException("Connection.isValid() returned false");
+        }
+      } else {
+        try (Statement statement = realConn.createStatement()) {
+          if (poolPingTimeout > 0) {
+            statement.setQueryTimeout(poolPingTimeout);
           }
+          statement.executeQuery(poolPingQuery).close();
         }
+        if (!realConn.getAutoCommit()) {
+          realConn.rollback();
+        }
+      }
+      conn.setValidatedTimestamp(System.currentTimeMillis());
+      result = true;
+      if (log.isDebugEnabled()) {
+        log.debug("Connection " + conn.getRealHashCode() + " is GOOD!");
+      }
+    } catch (Exception e) {
+      if (poolPingUseIsValid) {
+        log.warn("Validation of connection " + conn.getRealHashCode() + " failed: " + e.getMessage());
+      } else {
+        log.warn("Execution of ping query '" + poolPingQuery + "' failed: " + e.getMessage());
+      }
+      try {
+        conn.getRealConnection().close();
+      } catch (Exception e2) {
+        //ignore
+      }
+      result = false;
+      if (log.isDebugEnabled()) {
+        log.debug("Connection " + conn.getRealHashCode() + " is BAD: " + e.getMessage());
       }
     }
     return result;
   }
 
+  private boolean isPingRequired(PooledConnection conn, long bypassWindow) {
+    return poolPingConnectionsNotUsedFor >= 0 && conn.getTimeElapsedSinceLastUse() > poolPingConnectionsNotUsedFor
+        && (bypassWindow <= 0 || conn.getTimeElapsedSinceValidation() >= bypassWindow);
+  }
+
   /**
    * Unwraps a pooled connection to get to the 'real' connection
    *
@@ -576,16 +1623,16 @@ public class PooledDataSource implements DataSource {
    * @return The 'real' connection
    */
   public static Connection unwrapConnection(Connection conn) {
-    if (Proxy.isProxyClass(conn.getClass())) {
-      InvocationHandler handler = Proxy.getInvocationHandler(conn);
-      if (handler instanceof PooledConnection) {
-        return ((PooledConnection) handler).getRealConnection();
-      }
+    if (conn instanceof PooledConnectionProxy) {
+      return ((PooledConnectionProxy) conn).getPooledConnection().getRealConnection();
     }
     return conn;
   }
 
   protected void finalize() throws Throwable {
+    if (housekeeper != null) {
+      housekeeper.stop();
+    }
     forceCloseAll();
     super.finalize();
   }
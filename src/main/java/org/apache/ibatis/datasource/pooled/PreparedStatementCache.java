@@ -0,0 +1,230 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Least recently used cache of the prepared statements of one physical connection, so that statements survive the
+ * checkouts of the connection and the same SQL is not prepared again by every session.
+ * <p>
+ * A statement is removed from the cache while it is in use and put back when the handle of its checkout is closed,
+ * so a statement is never shared by two holders. Statements evicted beyond the size of the cache are closed.
+ *
+ * @see PooledDataSource#setPoolPreparedStatementCacheSize(int)
+ */
+class PreparedStatementCache {
+
+  private final int size;
+  private final Map<Key, Entry> statements = new LinkedHashMap<>(16, .75F, true);
+
+  PreparedStatementCache(int size) {
+    this.size = size;
+  }
+
+  /**
+   * Gets a cached statement for the given SQL, or prepares a new one.
+   *
+   * @param connection the real connection
+   * @param sql the SQL of the statement
+   * @param resultSetType the result set type
+   * @param resultSetConcurrency the result set concurrency
+   * @return a statement that is returned to the cache when it is closed
+   * @throws SQLException if a new statement could not be prepared
+   */
+  PreparedStatement prepareStatement(Connection connection, String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+    Key key = new Key(sql, resultSetType, resultSetConcurrency);
+    Entry cached;
+    synchronized (this) {
+      cached = statements.remove(key);
+    }
+    if (cached == null || cached.getStatement().isClosed()) {
+      PreparedStatement statement = key.isDefault() ? connection.prepareStatement(sql)
+          : connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+      cached = new Entry(key, statement);
+    }
+    return new CachedPreparedStatement(this, cached, cached.checkout());
+  }
+
+  /**
+   * Puts back a statement closed by its holder.
+   *
+   * @param cached the statement
+   */
+  void release(Entry cached) {
+    if (!cached.reset()) {
+      close(cached);
+      return;
+    }
+    List<Entry> evicted = new ArrayList<>();
+    synchronized (this) {
+      // the same SQL may have been prepared twice by nested queries, keep the statement already cached
+      if (statements.putIfAbsent(cached.getKey(), cached) != null) {
+        evicted.add(cached);
+      }
+      Iterator<Entry> iterator = statements.values().iterator();
+      while (statements.size() > size && iterator.hasNext()) {
+        evicted.add(iterator.next());
+        iterator.remove();
+      }
+    }
+    for (Entry statement : evicted) {
+      close(statement);
+    }
+  }
+
+  private static void close(Entry cached) {
+    try {
+      cached.getStatement().close();
+    } catch (SQLException e) {
+      // ignore
+    }
+  }
+
+  /**
+   * A real statement of the cache, handed out to one holder at a time. Each checkout is a generation, that moves on
+   * when the checkout ends, so that the handle of an earlier checkout can never be used again.
+   */
+  static final class Entry {
+    private final Key key;
+    private final PreparedStatement statement;
+    private final int fetchSize;
+    private final int queryTimeout;
+    private final int maxRows;
+    private final AtomicLong generation = new AtomicLong();
+    private boolean batched;
+
+    Entry(Key key, PreparedStatement statement) throws SQLException {
+      this.key = key;
+      this.statement = statement;
+      this.fetchSize = statement.getFetchSize();
+      this.queryTimeout = statement.getQueryTimeout();
+      this.maxRows = statement.getMaxRows();
+    }
+
+    Key getKey() {
+      return key;
+    }
+
+    PreparedStatement getStatement() {
+      return statement;
+    }
+
+    /**
+     * Hands out the statement to a new holder.
+     *
+     * @return the generation of the checkout
+     */
+    long checkout() {
+      batched = false;
+      return generation.get();
+    }
+
+    boolean isCurrent(long checkout) {
+      return generation.get() == checkout;
+    }
+
+    /**
+     * Atomically ends the given checkout.
+     *
+     * @param checkout the generation of the checkout
+     * @return true if the checkout was current, i.e. if the caller now owns the statement
+     */
+    boolean release(long checkout) {
+      // the generations only move forward, so the handle of an earlier checkout never matches again
+      return generation.compareAndSet(checkout, checkout + 1);
+    }
+
+    void markBatched() {
+      batched = true;
+    }
+
+    /**
+     * Restores the state the statement had when it was prepared, so that the next holder does not inherit the
+     * parameters and settings of the previous one.
+     *
+     * @return true if the statement can be cached again
+     */
+    boolean reset() {
+      try {
+        if (statement.isClosed()) {
+          return false;
+        }
+        statement.clearParameters();
+        if (batched) {
+          statement.clearBatch();
+        }
+        statement.clearWarnings();
+        if (statement.getFetchSize() != fetchSize) {
+          statement.setFetchSize(fetchSize);
+        }
+        if (statement.getQueryTimeout() != queryTimeout) {
+          statement.setQueryTimeout(queryTimeout);
+        }
+        if (statement.getMaxRows() != maxRows) {
+          statement.setMaxRows(maxRows);
+        }
+        return true;
+      } catch (SQLException e) {
+        return false;
+      }
+    }
+  }
+
+  static final class Key {
+    private final String sql;
+    private final int resultSetType;
+    private final int resultSetConcurrency;
+
+    Key(String sql, int resultSetType, int resultSetConcurrency) {
+      this.sql = sql;
+      this.resultSetType = resultSetType;
+      this.resultSetConcurrency = resultSetConcurrency;
+    }
+
+    boolean isDefault() {
+      return resultSetType == ResultSet.TYPE_FORWARD_ONLY && resultSetConcurrency == ResultSet.CONCUR_READ_ONLY;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return resultSetType == other.resultSetType && resultSetConcurrency == other.resultSetConcurrency
+          && sql.equals(other.sql);
+    }
+
+    @Override
+    public int hashCode() {
+      return (sql.hashCode() * 31 + resultSetType) * 31 + resultSetConcurrency;
+    }
+  }
+
+}
@@ -23,6 +23,7 @@ import java.sql.Statement;
 import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
+import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheKey;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.cursor.Cursor;
@@ -38,6 +39,7 @@ import org.apache.ibatis.mapping.StatementType;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
 import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.LocalCacheEviction;
 import org.apache.ibatis.session.LocalCacheScope;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
@@ -66,7 +68,7 @@ public abstract class BaseExecutor implements Executor {
   /**
    * 一级缓存
    */
-  protected PerpetualCache localCache;
+  protected Cache localCache;
   /**
    * 本地输出类型的参数的缓存
    */
@@ -84,13 +86,21 @@ public abstract class BaseExecutor implements Executor {
   protected BaseExecutor(Configuration configuration, Transaction transaction) {
     this.transaction = transaction;
     this.deferredLoads = new ConcurrentLinkedQueue<>();
-    this.localCache = new PerpetualCache("LocalCache");
+    this.localCache = newLocalCache(configuration);
     this.localOutputParameterCache = new PerpetualCache("LocalOutputParameterCache");
     this.closed = false;
     this.configuration = configuration;
     this.wrapper = this;
   }
 
+  private static Cache newLocalCache(Configuration configuration) {
+    if (configuration == null || configuration.getLocalCacheMaxSize() <= 0 && configuration.getLocalCacheMaxRows() <= 0) {
+      return new PerpetualCache("LocalCache");
+    }
+    return new BoundedLocalCache("LocalCache", configuration.getLocalCacheMaxSize(), configuration.getLocalCacheMaxRows(),
+        configuration.getLocalCacheEviction() == LocalCacheEviction.LRU);
+  }
+
   @Override
   public Transaction getTransaction() {
     if (closed) {
@@ -197,6 +207,9 @@ public abstract class BaseExecutor implements Executor {
       if (configuration.getLocalCacheScope() == LocalCacheScope.STATEMENT) {
         // issue #482
         clearLocalCache();
+      } else if (localCache instanceof BoundedLocalCache) {
+        // 没有查询在执行，此时淘汰不会影响 EXECUTION_PLACEHOLDER 和 DeferredLoad
+        ((BoundedLocalCache) localCache).trim(localOutputParameterCache);
       }
     }
     return list;
@@ -230,12 +243,10 @@ public abstract class BaseExecutor implements Executor {
       throw new ExecutorException("Executor was closed.");
     }
     // 创建CacheKey对象
-    // 设置 id、offset、limit、sql 到 CacheKey 对象中
-    CacheKey cacheKey = new CacheKey();
-    cacheKey.update(ms.getId());
+    // 设置 id、sql、offset、limit 到 CacheKey 对象中，id 和 sql 部分由 MappedStatement 预先计算
+    CacheKey cacheKey = ms.newCacheKey(boundSql.getSql());
     cacheKey.update(rowBounds.getOffset());
     cacheKey.update(rowBounds.getLimit());
-    cacheKey.update(boundSql.getSql());
     // 获取ParameterMapping数组
     List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
     TypeHandlerRegistry typeHandlerRegistry = ms.getConfiguration().getTypeHandlerRegistry();
@@ -398,7 +409,7 @@ public abstract class BaseExecutor implements Executor {
     private final String property;
     private final Class<?> targetType;
     private final CacheKey key;
-    private final PerpetualCache localCache;
+    private final Cache localCache;
     private final ObjectFactory objectFactory;
     private final ResultExtractor resultExtractor;
 
@@ -406,7 +417,7 @@ public abstract class BaseExecutor implements Executor {
     public DeferredLoad(MetaObject resultObject,
                         String property,
                         CacheKey key,
-                        PerpetualCache localCache,
+                        Cache localCache,
                         Configuration configuration,
                         Class<?> targetType) {
       this.resultObject = resultObject;
@@ -20,6 +20,7 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -30,6 +31,9 @@ import org.apache.ibatis.executor.keygen.NoKeyGenerator;
 import org.apache.ibatis.executor.statement.StatementHandler;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
@@ -59,6 +63,18 @@ public class BatchExecutor extends BaseExecutor {
    * 当前 MappedStatement 对象
    */
   private MappedStatement currentStatement;
+  /**
+   * 已自动执行的批处理结果，在下一次 flushStatements 时返回
+   */
+  private final List<FlushedBatch> flushedBatches = new ArrayList<>();
+  /**
+   * 待执行的批处理数量
+   */
+  private int batchedCount;
+  /**
+   * 待执行的批处理参数的估算字节数
+   */
+  private long batchedBytes;
 
   public BatchExecutor(Configuration configuration, Transaction transaction) {
     super(configuration, transaction);
@@ -97,6 +113,15 @@ public class BatchExecutor extends BaseExecutor {
     }
     // 添加到批处理
     handler.batch(stmt);
+    // 达到阈值时自动执行批处理
+    batchedCount++;
+    if (configuration.getBatchMaxBytes() > 0) {
+      batchedBytes += estimateBytes(configuration, boundSql, parameterObject);
+    }
+    if (configuration.getBatchSize() > 0 && batchedCount >= configuration.getBatchSize()
+        || configuration.getBatchMaxBytes() > 0 && batchedBytes >= configuration.getBatchMaxBytes()) {
+      autoFlushStatements();
+    }
     // 返回默认值
     return BATCH_UPDATE_RETURN_VALUE;
   }
@@ -130,8 +155,91 @@ public class BatchExecutor extends BaseExecutor {
     return handler.queryCursor(stmt);
   }
 
+  /**
+   * Executes the pending statements.
+   * <p>
+   * When batches were executed automatically because the batch size was reached and no {@link BatchResultHandler}
+   * is configured, their results come first, one per consecutive run of the same statement, with all their update
+   * counts and without parameter objects. They are followed by the results of the batches executed by this call,
+   * which keep their parameter objects.
+   */
   @Override
   public List<BatchResult> doFlushStatements(boolean isRollback) throws SQLException {
+    try {
+      List<BatchResult> results = executeStatements(isRollback);
+      if (isRollback || flushedBatches.isEmpty()) {
+        return results;
+      }
+      List<BatchResult> aggregated = new ArrayList<>(flushedBatches.size() + results.size());
+      for (FlushedBatch flushedBatch : flushedBatches) {
+        aggregated.add(flushedBatch.toBatchResult());
+      }
+      aggregated.addAll(results);
+      return aggregated;
+    } finally {
+      flushedBatches.clear();
+    }
+  }
+
+  /**
+   * Executes the pending statements once the configured batch size is reached. The results are passed to the
+   * {@link BatchResultHandler} if there is one, or else aggregated without their parameter objects so that they are
+   * released.
+   */
+  private void autoFlushStatements() throws SQLException {
+    BatchResultHandler batchResultHandler = configuration.getBatchResultHandler();
+    for (BatchResult batchResult : executeStatements(false)) {
+      if (batchResultHandler != null) {
+        batchResultHandler.handleBatchResult(batchResult);
+      } else {
+        aggregate(batchResult);
+      }
+    }
+  }
+
+  private void aggregate(BatchResult batchResult) {
+    FlushedBatch last = flushedBatches.isEmpty() ? null : flushedBatches.get(flushedBatches.size() - 1);
+    if (last == null || !last.mappedStatement.equals(batchResult.getMappedStatement())
+        || !last.sql.equals(batchResult.getSql())) {
+      last = new FlushedBatch(batchResult.getMappedStatement(), batchResult.getSql());
+      flushedBatches.add(last);
+    }
+    last.addUpdateCounts(batchResult.getUpdateCounts());
+  }
+
+  private static long estimateBytes(Configuration configuration, BoundSql boundSql, Object parameterObject) {
+    long bytes = 0;
+    MetaObject metaObject = null;
+    for (ParameterMapping parameterMapping : boundSql.getParameterMappings()) {
+      if (parameterMapping.getMode() == ParameterMode.OUT) {
+        continue;
+      }
+      String propertyName = parameterMapping.getProperty();
+      Object value;
+      if (boundSql.hasAdditionalParameter(propertyName)) {
+        value = boundSql.getAdditionalParameter(propertyName);
+      } else if (parameterObject == null) {
+        value = null;
+      } else if (configuration.getTypeHandlerRegistry().hasTypeHandler(parameterObject.getClass())) {
+        value = parameterObject;
+      } else {
+        if (metaObject == null) {
+          metaObject = configuration.newMetaObject(parameterObject);
+        }
+        value = metaObject.getValue(propertyName);
+      }
+      if (value instanceof CharSequence) {
+        bytes += 2L * ((CharSequence) value).length();
+      } else if (value instanceof byte[]) {
+        bytes += ((byte[]) value).length;
+      } else {
+        bytes += 8;
+      }
+    }
+    return bytes;
+  }
+
+  private List<BatchResult> executeStatements(boolean isRollback) throws SQLException {
     try {
       List<BatchResult> results = new ArrayList<>();
       // 如果 isRollback 为 true ，返回空数组
@@ -185,6 +293,38 @@ public class BatchExecutor extends BaseExecutor {
       currentSql = null;
       statementList.clear();
       batchResultList.clear();
+      batchedCount = 0;
+      batchedBytes = 0;
+    }
+  }
+
+  /**
+   * The update counts of consecutive batches of the same statement executed automatically, collected in a buffer
+   * that doubles when full so that aggregating them costs linear time.
+   */
+  private static final class FlushedBatch {
+    private final MappedStatement mappedStatement;
+    private final String sql;
+    private int[] updateCounts = new int[16];
+    private int size;
+
+    FlushedBatch(MappedStatement mappedStatement, String sql) {
+      this.mappedStatement = mappedStatement;
+      this.sql = sql;
+    }
+
+    void addUpdateCounts(int[] counts) {
+      if (size + counts.length > updateCounts.length) {
+        updateCounts = Arrays.copyOf(updateCounts, Math.max(updateCounts.length * 2, size + counts.length));
+      }
+      System.arraycopy(counts, 0, updateCounts, size, counts.length);
+      size += counts.length;
+    }
+
+    BatchResult toBatchResult() {
+      BatchResult batchResult = new BatchResult(mappedStatement, sql);
+      batchResult.setUpdateCounts(Arrays.copyOf(updateCounts, size));
+      return batchResult;
     }
   }
 
@@ -0,0 +1,34 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+/**
+ * Receives the results of the batches a {@link BatchExecutor} executes on its own once they reach the configured
+ * size, so that bulk loads do not retain them until the statements are flushed.
+ *
+ * @see org.apache.ibatis.session.Configuration#setBatchSize(int)
+ * @see org.apache.ibatis.session.Configuration#setBatchMaxBytes(long)
+ * @since 3.5.2
+ */
+@FunctionalInterface
+public interface BatchResultHandler {
+
+  /**
+   * @param batchResult the result of an executed batch, with the parameter objects it was executed with
+   */
+  void handleBatchResult(BatchResult batchResult);
+
+}
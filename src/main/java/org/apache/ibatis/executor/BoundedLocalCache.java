@@ -0,0 +1,153 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import static org.apache.ibatis.executor.ExecutionPlaceholder.EXECUTION_PLACEHOLDER;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+
+/**
+ * Local cache of an executor bounded by a number of entries and by a total number of rows.
+ * <p>
+ * Entries are only evicted by {@link #trim(Cache)}, which the executor calls once no query is running, so that the
+ * execution placeholders and the results the deferred loads of a query are waiting for are never evicted.
+ *
+ * @since 3.5.2
+ */
+class BoundedLocalCache implements Cache {
+
+  private final String id;
+  private final int maxSize;
+  private final long maxRows;
+  private final Map<Object, Object> entries;
+  private long rows;
+
+  /**
+   * @param id the id of the cache
+   * @param maxSize the maximum number of entries, 0 or less for no limit
+   * @param maxRows the maximum number of rows of all the cached lists, 0 or less for no limit
+   * @param accessOrder true to evict the least recently used entries first, false to evict the oldest ones
+   */
+  BoundedLocalCache(String id, int maxSize, long maxRows, boolean accessOrder) {
+    this.id = id;
+    this.maxSize = maxSize;
+    this.maxRows = maxRows;
+    this.entries = new LinkedHashMap<>(16, .75F, accessOrder);
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public int getSize() {
+    return entries.size();
+  }
+
+  /**
+   * @return the number of rows of all the cached lists
+   */
+  long getRows() {
+    return rows;
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    rows += rowsOf(value) - rowsOf(entries.put(key, value));
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    return entries.get(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Object value = entries.remove(key);
+    rows -= rowsOf(value);
+    return value;
+  }
+
+  @Override
+  public void clear() {
+    entries.clear();
+    rows = 0;
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  /**
+   * Evicts entries until the cache is within its limits. Execution placeholders are never evicted.
+   *
+   * @param outputParameters the cache of the output parameters, keyed like this cache
+   */
+  void trim(Cache outputParameters) {
+    Iterator<Map.Entry<Object, Object>> iterator = entries.entrySet().iterator();
+    while (isOverLimit() && iterator.hasNext()) {
+      Map.Entry<Object, Object> eldest = iterator.next();
+      if (eldest.getValue() != EXECUTION_PLACEHOLDER) {
+        iterator.remove();
+        rows -= rowsOf(eldest.getValue());
+        outputParameters.removeObject(eldest.getKey());
+      }
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (id == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Cache)) {
+      return false;
+    }
+    return id.equals(((Cache) o).getId());
+  }
+
+  @Override
+  public int hashCode() {
+    if (id == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    return id.hashCode();
+  }
+
+  private boolean isOverLimit() {
+    return maxSize > 0 && entries.size() > maxSize || maxRows > 0 && rows > maxRows;
+  }
+
+  private static long rowsOf(Object value) {
+    if (value instanceof Collection) {
+      return ((Collection<?>) value).size();
+    }
+    return value == null || value == EXECUTION_PLACEHOLDER ? 0 : 1;
+  }
+
+}
@@ -19,8 +19,12 @@ import java.sql.SQLException;
 import java.util.List;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheInvalidationBus;
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.CacheStats;
 import org.apache.ibatis.cache.TransactionalCacheManager;
+import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.decorators.CacheTagIndex;
 import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
@@ -39,10 +43,20 @@ import org.apache.ibatis.transaction.Transaction;
 public class CachingExecutor implements Executor {
 
   private final Executor delegate;
-  private final TransactionalCacheManager tcm = new TransactionalCacheManager();
+  private final TransactionalCacheManager tcm;
 
   public CachingExecutor(Executor delegate) {
+    this(delegate, null);
+  }
+
+  /**
+   * @param delegate the executor running the statements
+   * @param invalidationBus the bus to publish the committed cache invalidations to, or null
+   * @since 3.5.2
+   */
+  public CachingExecutor(Executor delegate, CacheInvalidationBus invalidationBus) {
     this.delegate = delegate;
+    this.tcm = new TransactionalCacheManager(invalidationBus);
     delegate.setExecutorWrapper(this);
   }
 
@@ -100,7 +114,19 @@ public class CachingExecutor implements Executor {
         @SuppressWarnings("unchecked")
         List<E> list = (List<E>) tcm.getObject(cache, key);
         if (list == null) {
-          list = delegate.query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+          long start = System.nanoTime();
+          try {
+            list = delegate.query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+          } catch (SQLException | RuntimeException e) {
+            if (cache instanceof BlockingCache) {
+              ((BlockingCache) cache).failObject(key, e);
+            }
+            throw e;
+          }
+          CacheStats stats = cache.getStats();
+          if (stats != null) {
+            stats.recordLoad(System.nanoTime() - start);
+          }
           tcm.putObject(cache, key, list); // issue #578 and #116
         }
         return list;
@@ -164,7 +190,12 @@ public class CachingExecutor implements Executor {
   private void flushCacheIfRequired(MappedStatement ms) {
     Cache cache = ms.getCache();
     if (cache != null && ms.isFlushCacheRequired()) {
-      tcm.clear(cache);
+      CacheTagIndex tagIndex = ms.getCacheTags() == null ? null : ms.getConfiguration().getCacheTagIndex(cache.getId());
+      if (tagIndex != null) {
+        tcm.evictTags(cache, tagIndex, ms.getCacheTags());
+      } else {
+        tcm.clear(cache);
+      }
     }
   }
 
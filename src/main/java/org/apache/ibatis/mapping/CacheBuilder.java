@@ -24,12 +24,20 @@ import java.util.Properties;
 import org.apache.ibatis.builder.InitializingObject;
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheStats;
 import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.decorators.CacheTagIndex;
+import org.apache.ibatis.cache.decorators.CacheWeightBudget;
+import org.apache.ibatis.cache.decorators.ExpiringCache;
 import org.apache.ibatis.cache.decorators.LoggingCache;
 import org.apache.ibatis.cache.decorators.LruCache;
-import org.apache.ibatis.cache.decorators.ScheduledCache;
+import org.apache.ibatis.cache.decorators.NearCache;
 import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.decorators.SnapshotCache;
 import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.decorators.WeightedCache;
+import org.apache.ibatis.cache.impl.ConcurrentCache;
+import org.apache.ibatis.cache.impl.OffHeapCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.SystemMetaObject;
@@ -46,6 +54,10 @@ public class CacheBuilder {
   private boolean readWrite;
   private Properties properties;
   private boolean blocking;
+  private CacheWeightBudget weightBudget;
+  private CacheStats stats;
+  private Cache baseCache;
+  private Cache evictionCache;
 
   public CacheBuilder(String id) {
     this.id = id;
@@ -84,6 +96,16 @@ public class CacheBuilder {
     return this;
   }
 
+  /**
+   * @param weightBudget the budget shared by the {@link WeightedCache} decorators of a configuration
+   * @return this builder
+   * @since 3.5.2
+   */
+  public CacheBuilder weightBudget(CacheWeightBudget weightBudget) {
+    this.weightBudget = weightBudget;
+    return this;
+  }
+
   public CacheBuilder properties(Properties properties) {
     this.properties = properties;
     return this;
@@ -93,19 +115,47 @@ public class CacheBuilder {
     setDefaultImplementations();
     Cache cache = newBaseCacheInstance(implementation, id);
     setCacheProperties(cache);
+    stats = new CacheStats(cache::getSize);
+    setStats(cache);
     // issue #352, do not apply decorators to custom caches
     if (PerpetualCache.class.equals(cache.getClass())) {
+      baseCache = cache;
       for (Class<? extends Cache> decorator : decorators) {
         cache = newCacheDecoratorInstance(decorator, cache);
         setCacheProperties(cache);
+        setStats(cache);
+        if (weightBudget != null && cache instanceof WeightedCache) {
+          ((WeightedCache) cache).setWeightBudget(weightBudget);
+        }
       }
       cache = setStandardDecorators(cache);
+    } else if (ConcurrentCache.class.equals(cache.getClass()) || OffHeapCache.class.equals(cache.getClass())) {
+      // evicts by itself, so the eviction decorators do not apply
+      baseCache = cache;
+      cache = setStandardDecorators(cache);
+    } else if (properties != null && properties.containsKey("nearCacheSize")) {
+      cache = setNearCacheDecorators(cache);
     } else if (!LoggingCache.class.isAssignableFrom(cache.getClass())) {
-      cache = new LoggingCache(cache);
+      cache = new LoggingCache(cache, stats);
     }
     return cache;
   }
 
+  private Cache setNearCacheDecorators(Cache cache) {
+    try {
+      cache = new NearCache(cache);
+      setCacheProperties(cache);
+      if (readWrite) {
+        // both tiers share the cached instances
+        cache = new SerializedCache(cache);
+        setCacheProperties(cache);
+      }
+      return new LoggingCache(cache, stats);
+    } catch (Exception e) {
+      throw new CacheException("Error building near cache decorators.  Cause: " + e, e);
+    }
+  }
+
   private void setDefaultImplementations() {
     if (implementation == null) {
       implementation = PerpetualCache.class;
@@ -117,19 +167,32 @@ public class CacheBuilder {
 
   private Cache setStandardDecorators(Cache cache) {
     try {
+      boolean threadSafe = cache instanceof ConcurrentCache || cache instanceof OffHeapCache;
       MetaObject metaCache = SystemMetaObject.forObject(cache);
       if (size != null && metaCache.hasSetter("size")) {
         metaCache.setValue("size", size);
       }
       if (clearInterval != null) {
-        cache = new ScheduledCache(cache);
-        ((ScheduledCache) cache).setClearInterval(clearInterval);
+        cache = new ExpiringCache(cache);
+        ((ExpiringCache) cache).setTimeToLive(clearInterval);
+        ((ExpiringCache) cache).setStats(stats);
+        setCacheProperties(cache);
+      }
+      if (!threadSafe && properties != null && properties.containsKey("snapshotInterval")) {
+        SnapshotCache snapshotCache = new SnapshotCache(cache);
+        setCacheProperties(snapshotCache);
+        snapshotCache.load();
+        cache = snapshotCache;
       }
       if (readWrite) {
         cache = new SerializedCache(cache);
+        setCacheProperties(cache);
+      }
+      cache = new LoggingCache(cache, stats);
+      if (!threadSafe) {
+        cache = new SynchronizedCache(cache);
       }
-      cache = new LoggingCache(cache);
-      cache = new SynchronizedCache(cache);
+      evictionCache = cache;
       if (blocking) {
         cache = new BlockingCache(cache);
       }
@@ -139,6 +202,32 @@ public class CacheBuilder {
     }
   }
 
+  private void setStats(Cache cache) {
+    MetaObject metaCache = SystemMetaObject.forObject(cache);
+    if (metaCache.hasSetter("stats") && CacheStats.class.equals(metaCache.getSetterType("stats"))) {
+      metaCache.setValue("stats", stats);
+    }
+  }
+
+  /**
+   * Builds an index of the entries of the last built cache by cache tag. The index is only worth its upkeep when
+   * some statements using the cache have cache tags, so it is built apart from the cache, once such a statement
+   * is found.
+   *
+   * @return the index, or null if the entries of the cache cannot be evicted by tag
+   * @since 3.5.2
+   */
+  public CacheTagIndex buildTagIndex() {
+    if (baseCache == null || evictionCache == null) {
+      return null;
+    }
+    CacheTagIndex tagIndex = new CacheTagIndex();
+    tagIndex.setCache(evictionCache);
+    // the base cache maintains the index, as it sees all the entries the decorators remove and evict
+    SystemMetaObject.forObject(baseCache).setValue("tagIndex", tagIndex);
+    return tagIndex;
+  }
+
   private void setCacheProperties(Cache cache) {
     if (properties != null) {
       MetaObject metaCache = SystemMetaObject.forObject(cache);
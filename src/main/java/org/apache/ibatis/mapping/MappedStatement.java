@@ -18,8 +18,12 @@ package org.apache.ibatis.mapping;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheKey;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.keygen.NoKeyGenerator;
@@ -33,6 +37,8 @@ import org.apache.ibatis.session.Configuration;
  */
 public final class MappedStatement {
 
+  private static final int MAX_CACHE_KEY_PREFIXES = 32;
+
   private String resource;
   private Configuration configuration;
   private String id;
@@ -56,6 +62,9 @@ public final class MappedStatement {
   private Log statementLog;
   private LanguageDriver lang;
   private String[] resultSets;
+  private String[] cacheTags;
+  private volatile CacheKeyPrefix cacheKeyPrefix;
+  private final Map<String, CacheKey> cacheKeyPrefixes = new ConcurrentHashMap<>();
 
   MappedStatement() {
     // constructor disabled
@@ -174,6 +183,16 @@ public final class MappedStatement {
       return this;
     }
 
+    /**
+     * @param cacheTags comma separated cache tags, usually the names of the tables the statement reads or writes
+     * @since 3.5.2
+     */
+    public Builder cacheTags(String cacheTags) {
+      String trimmed = cacheTags == null ? "" : cacheTags.trim();
+      mappedStatement.cacheTags = trimmed.isEmpty() ? null : trimmed.split("\\s*,\\s*");
+      return this;
+    }
+
     /**
      * @deprecated Use {@link #resultSets}
      */
@@ -285,6 +304,17 @@ public final class MappedStatement {
     return resultSets;
   }
 
+  /**
+   * Returns the cache tags of this statement. Entries loaded by a select are evicted by the writes sharing any of its
+   * tags, while a write without tags clears the whole cache.
+   *
+   * @return the cache tags, or null if the statement has none
+   * @since 3.5.2
+   */
+  public String[] getCacheTags() {
+    return cacheTags;
+  }
+
   /**
    * @deprecated Use {@link #getResultSets()}
    */
@@ -318,6 +348,47 @@ public final class MappedStatement {
     return boundSql;
   }
 
+  /**
+   * Creates a cache key that starts with the id of this statement and the given SQL. Their hash is computed once per
+   * SQL shape, for up to 32 shapes, and keys created for the same SQL share the same string, which is then compared
+   * by identity. Static SQL is the same string on every call, and is recognized by identity. Dynamic SQL is a new
+   * string on every call, so finding its shape still costs one hash of the SQL. The key carries the cache tags of
+   * this statement.
+   *
+   * @param sql the SQL run by this statement
+   * @return a new cache key to be updated with the rest of the query
+   * @since 3.5.2
+   */
+  public CacheKey newCacheKey(String sql) {
+    CacheKeyPrefix prefix = cacheKeyPrefix;
+    CacheKey key;
+    if (prefix != null && prefix.sql == sql) {
+      key = prefix.key;
+    } else {
+      key = cacheKeyPrefixes.get(sql);
+      if (key == null) {
+        key = new CacheKey();
+        key.update(id);
+        key.update(sql);
+        key.setTags(cacheTags);
+        // bounded, as SQL built with ${} substitutions may never run twice
+        if (cacheKeyPrefixes.size() < MAX_CACHE_KEY_PREFIXES) {
+          CacheKey existing = cacheKeyPrefixes.putIfAbsent(sql, key);
+          if (existing != null) {
+            key = existing;
+          } else {
+            cacheKeyPrefix = new CacheKeyPrefix(sql, key);
+          }
+        }
+      }
+    }
+    try {
+      return key.clone();
+    } catch (CloneNotSupportedException e) {
+      throw new CacheException("Error creating cache key for " + id + ".  Cause: " + e, e);
+    }
+  }
+
   private static String[] delimitedStringToArray(String in) {
     if (in == null || in.trim().length() == 0) {
       return null;
@@ -326,4 +397,14 @@ public final class MappedStatement {
     }
   }
 
+  private static final class CacheKeyPrefix {
+    private final String sql;
+    private final CacheKey key;
+
+    CacheKeyPrefix(String sql, CacheKey key) {
+      this.sql = sql;
+      this.key = key;
+    }
+  }
+
 }
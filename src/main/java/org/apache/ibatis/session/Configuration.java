@@ -26,6 +26,7 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
 import org.apache.ibatis.binding.MapperRegistry;
 import org.apache.ibatis.builder.CacheRefResolver;
@@ -34,15 +35,23 @@ import org.apache.ibatis.builder.ResultMapResolver;
 import org.apache.ibatis.builder.annotation.MethodResolver;
 import org.apache.ibatis.builder.xml.XMLStatementBuilder;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheInvalidation;
+import org.apache.ibatis.cache.CacheInvalidationBus;
+import org.apache.ibatis.cache.decorators.CacheTagIndex;
+import org.apache.ibatis.cache.decorators.CacheWeightBudget;
 import org.apache.ibatis.cache.decorators.FifoCache;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.decorators.SoftCache;
 import org.apache.ibatis.cache.decorators.WeakCache;
+import org.apache.ibatis.cache.decorators.WeightedCache;
+import org.apache.ibatis.cache.impl.ConcurrentCache;
+import org.apache.ibatis.cache.impl.OffHeapCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.datasource.jndi.JndiDataSourceFactory;
 import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSourceFactory;
 import org.apache.ibatis.executor.BatchExecutor;
+import org.apache.ibatis.executor.BatchResultHandler;
 import org.apache.ibatis.executor.CachingExecutor;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.executor.ReuseExecutor;
@@ -117,6 +126,14 @@ public class Configuration {
   protected Class<? extends Log> logImpl;
   protected Class<? extends VFS> vfsImpl;
   protected LocalCacheScope localCacheScope = LocalCacheScope.SESSION;
+  protected int localCacheMaxSize;
+  protected long localCacheMaxRows;
+  protected LocalCacheEviction localCacheEviction = LocalCacheEviction.LRU;
+  protected int batchSize;
+  protected long batchMaxBytes;
+  protected BatchResultHandler batchResultHandler;
+  protected final CacheWeightBudget cacheWeightBudget = new CacheWeightBudget(0);
+  protected CacheInvalidationBus cacheInvalidationBus;
   protected JdbcType jdbcTypeForNull = JdbcType.OTHER;
   protected Set<String> lazyLoadTriggerMethods = new HashSet<>(Arrays.asList("equals", "clone", "hashCode", "toString"));
   protected Integer defaultStatementTimeout;
@@ -155,6 +172,8 @@ public class Configuration {
       .conflictMessageProducer((savedValue, targetValue) ->
           ". please check " + savedValue.getResource() + " and " + targetValue.getResource());
   protected final Map<String, Cache> caches = new StrictMap<>("Caches collection");
+  protected final Map<String, CacheTagIndex> cacheTagIndexes = new HashMap<>();
+  protected final Map<String, Supplier<CacheTagIndex>> cacheTagIndexFactories = new HashMap<>();
   protected final Map<String, ResultMap> resultMaps = new StrictMap<>("Result Maps collection");
   protected final Map<String, ParameterMap> parameterMaps = new StrictMap<>("Parameter Maps collection");
   protected final Map<String, KeyGenerator> keyGenerators = new StrictMap<>("Key Generators collection");
@@ -188,10 +207,13 @@ public class Configuration {
     typeAliasRegistry.registerAlias("UNPOOLED", UnpooledDataSourceFactory.class);
 
     typeAliasRegistry.registerAlias("PERPETUAL", PerpetualCache.class);
+    typeAliasRegistry.registerAlias("CONCURRENT", ConcurrentCache.class);
+    typeAliasRegistry.registerAlias("OFFHEAP", OffHeapCache.class);
     typeAliasRegistry.registerAlias("FIFO", FifoCache.class);
     typeAliasRegistry.registerAlias("LRU", LruCache.class);
     typeAliasRegistry.registerAlias("SOFT", SoftCache.class);
     typeAliasRegistry.registerAlias("WEAK", WeakCache.class);
+    typeAliasRegistry.registerAlias("WEIGHTED", WeightedCache.class);
 
     typeAliasRegistry.registerAlias("DB_VENDOR", VendorDatabaseIdProvider.class);
 
@@ -413,6 +435,65 @@ public class Configuration {
     this.cacheEnabled = cacheEnabled;
   }
 
+  /**
+   * @since 3.5.2
+   */
+  public long getCacheMaxWeight() {
+    return cacheWeightBudget.getMaxWeight();
+  }
+
+  /**
+   * Sets the estimated number of bytes that all the {@link WeightedCache} second level caches may retain together.
+   *
+   * @param cacheMaxWeight the maximum weight in bytes, 0 or less for no limit
+   * @since 3.5.2
+   */
+  public void setCacheMaxWeight(long cacheMaxWeight) {
+    cacheWeightBudget.setMaxWeight(cacheMaxWeight);
+  }
+
+  /**
+   * @since 3.5.2
+   */
+  public CacheWeightBudget getCacheWeightBudget() {
+    return cacheWeightBudget;
+  }
+
+  /**
+   * @since 3.5.2
+   */
+  public CacheInvalidationBus getCacheInvalidationBus() {
+    return cacheInvalidationBus;
+  }
+
+  /**
+   * Sets the bus that broadcasts the second level cache invalidations to the other nodes of a cluster. The
+   * invalidations committed on this node are published to it, and the ones received from it are applied to the caches
+   * of this configuration.
+   *
+   * @param cacheInvalidationBus the bus, or null if the caches are not shared with other nodes
+   * @since 3.5.2
+   */
+  public void setCacheInvalidationBus(CacheInvalidationBus cacheInvalidationBus) {
+    this.cacheInvalidationBus = cacheInvalidationBus;
+    if (cacheInvalidationBus != null) {
+      cacheInvalidationBus.subscribe(this::applyCacheInvalidation);
+    }
+  }
+
+  private void applyCacheInvalidation(CacheInvalidation invalidation) {
+    String id = invalidation.getCacheId();
+    if (!hasCache(id)) {
+      return;
+    }
+    CacheTagIndex tagIndex = getCacheTagIndex(id);
+    if (invalidation.isFlush() || tagIndex == null) {
+      getCache(id).clear();
+    } else {
+      tagIndex.evict(Arrays.asList(invalidation.getTags()));
+    }
+  }
+
   public Integer getDefaultStatementTimeout() {
     return defaultStatementTimeout;
   }
@@ -451,6 +532,103 @@ public class Configuration {
     this.localCacheScope = localCacheScope;
   }
 
+  /**
+   * @since 3.5.2
+   */
+  public int getLocalCacheMaxSize() {
+    return localCacheMaxSize;
+  }
+
+  /**
+   * Sets the maximum number of entries of the local cache of a session, 0 for no limit.
+   *
+   * @since 3.5.2
+   */
+  public void setLocalCacheMaxSize(int localCacheMaxSize) {
+    this.localCacheMaxSize = localCacheMaxSize;
+  }
+
+  /**
+   * @since 3.5.2
+   */
+  public long getLocalCacheMaxRows() {
+    return localCacheMaxRows;
+  }
+
+  /**
+   * Sets the maximum number of rows held by the local cache of a session, 0 for no limit.
+   *
+   * @since 3.5.2
+   */
+  public void setLocalCacheMaxRows(long localCacheMaxRows) {
+    this.localCacheMaxRows = localCacheMaxRows;
+  }
+
+  /**
+   * @since 3.5.2
+   */
+  public LocalCacheEviction getLocalCacheEviction() {
+    return localCacheEviction;
+  }
+
+  /**
+   * @since 3.5.2
+   */
+  public void setLocalCacheEviction(LocalCacheEviction localCacheEviction) {
+    this.localCacheEviction = localCacheEviction;
+  }
+
+  /**
+   * @since 3.5.2
+   */
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Sets the number of statements after which a batch executor executes its pending batches, 0 for no limit.
+   *
+   * @since 3.5.2
+   */
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * @since 3.5.2
+   */
+  public long getBatchMaxBytes() {
+    return batchMaxBytes;
+  }
+
+  /**
+   * Sets the estimated size of the parameters after which a batch executor executes its pending batches,
+   * 0 for no limit.
+   *
+   * @since 3.5.2
+   */
+  public void setBatchMaxBytes(long batchMaxBytes) {
+    this.batchMaxBytes = batchMaxBytes;
+  }
+
+  /**
+   * @since 3.5.2
+   */
+  public BatchResultHandler getBatchResultHandler() {
+    return batchResultHandler;
+  }
+
+  /**
+   * Sets the handler of the results of the batches executed when the batch size is reached.
+   *
+   * @param batchResultHandler the handler, or null to return the results, without their parameter objects, on the
+   *     next flush of the statements
+   * @since 3.5.2
+   */
+  public void setBatchResultHandler(BatchResultHandler batchResultHandler) {
+    this.batchResultHandler = batchResultHandler;
+  }
+
   public JdbcType getJdbcTypeForNull() {
     return jdbcTypeForNull;
   }
@@ -600,7 +778,7 @@ public class Configuration {
     }
     // 如果开启了二级缓存 默认开启 但是还需要开启mapper的缓存空间才有用
     if (cacheEnabled) {
-      executor = new CachingExecutor(executor);
+      executor = new CachingExecutor(executor, cacheInvalidationBus);
     }
     // 应用插件
     executor = (Executor) interceptorChain.pluginAll(executor);
@@ -647,6 +825,49 @@ public class Configuration {
     return caches.containsKey(id);
   }
 
+  /**
+   * @since 3.5.2
+   */
+  public void addCacheTagIndex(String id, CacheTagIndex tagIndex) {
+    cacheTagIndexes.put(id, tagIndex);
+  }
+
+  /**
+   * Registers how to build the index of the entries of a cache by cache tag, if a statement using the cache
+   * turns out to have cache tags. Until then, the statements writing to the database clear the whole cache.
+   *
+   * @param id the id of a cache
+   * @param factory builds the index, or returns null if the entries of the cache cannot be evicted by tag
+   * @since 3.5.2
+   */
+  public void addCacheTagIndexFactory(String id, Supplier<CacheTagIndex> factory) {
+    cacheTagIndexFactories.put(id, factory);
+  }
+
+  /**
+   * Builds and registers the index of the entries of a cache by cache tag, once a statement using the cache has
+   * cache tags.
+   *
+   * @param id the id of a cache
+   * @since 3.5.2
+   */
+  public void enableCacheTags(String id) {
+    Supplier<CacheTagIndex> factory = cacheTagIndexFactories.remove(id);
+    CacheTagIndex tagIndex = factory == null ? null : factory.get();
+    if (tagIndex != null) {
+      addCacheTagIndex(id, tagIndex);
+    }
+  }
+
+  /**
+   * @param id the id of a cache
+   * @return the index of the entries of the cache by cache tag, or null if its entries cannot be evicted by tag
+   * @since 3.5.2
+   */
+  public CacheTagIndex getCacheTagIndex(String id) {
+    return cacheTagIndexes.get(id);
+  }
+
   public void addResultMap(ResultMap rm) {
     resultMaps.put(rm.getId(), rm);
     checkLocallyForDiscriminatedNestedResultMaps(rm);
@@ -245,6 +245,10 @@ public interface SqlSession extends Closeable {
 
   /**
    * Flushes batch statements.
+   * <p>
+   * When batches were executed automatically because the configured batch size was reached and no batch result
+   * handler is configured, their results come first, with their update counts merged per consecutive statement and
+   * without parameter objects, followed by the results of the batches executed by this call.
    * @return BatchResult list of updated records
    * @since 3.0.6
    */
@@ -47,6 +47,7 @@ import org.apache.ibatis.session.AutoMappingBehavior;
 import org.apache.ibatis.session.AutoMappingUnknownColumnBehavior;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.LocalCacheEviction;
 import org.apache.ibatis.session.LocalCacheScope;
 import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
 import org.apache.ibatis.type.BaseTypeHandler;
@@ -89,6 +90,14 @@ class XmlConfigBuilderTest {
       assertThat(config.isMapUnderscoreToCamelCase()).isFalse();
       assertThat(config.isSafeRowBoundsEnabled()).isFalse();
       assertThat(config.getLocalCacheScope()).isEqualTo(LocalCacheScope.SESSION);
+      assertThat(config.getLocalCacheMaxSize()).isEqualTo(0);
+      assertThat(config.getLocalCacheMaxRows()).isEqualTo(0L);
+      assertThat(config.getLocalCacheEviction()).isEqualTo(LocalCacheEviction.LRU);
+      assertThat(config.getBatchSize()).isEqualTo(0);
+      assertThat(config.getBatchMaxBytes()).isEqualTo(0L);
+      assertThat(config.getBatchResultHandler()).isNull();
+      assertThat(config.getCacheMaxWeight()).isEqualTo(0L);
+      assertThat(config.getCacheInvalidationBus()).isNull();
       assertThat(config.getJdbcTypeForNull()).isEqualTo(JdbcType.OTHER);
       assertThat(config.getLazyLoadTriggerMethods()).isEqualTo(new HashSet<>(Arrays.asList("equals", "clone", "hashCode", "toString")));
       assertThat(config.isSafeResultHandlerEnabled()).isTrue();
@@ -182,6 +191,7 @@ class XmlConfigBuilderTest {
       assertThat(config.isMapUnderscoreToCamelCase()).isTrue();
       assertThat(config.isSafeRowBoundsEnabled()).isTrue();
       assertThat(config.getLocalCacheScope()).isEqualTo(LocalCacheScope.STATEMENT);
+      assertThat(config.getCacheMaxWeight()).isEqualTo(1048576L);
       assertThat(config.getJdbcTypeForNull()).isEqualTo(JdbcType.NULL);
       assertThat(config.getLazyLoadTriggerMethods()).isEqualTo(new HashSet<>(Arrays.asList("equals", "clone", "hashCode", "toString", "xxx")));
       assertThat(config.isSafeResultHandlerEnabled()).isFalse();
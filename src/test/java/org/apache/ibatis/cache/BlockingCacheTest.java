@@ -0,0 +1,113 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.reflect.Field;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class BlockingCacheTest {
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  @AfterEach
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  void shouldServeWaitersTheLoadedItem() throws Exception {
+    BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    assertNull(cache.getObject(0));
+    Future<Object> waiter = executor.submit(() -> cache.getObject(0));
+    Thread.sleep(100);
+    assertFalse(waiter.isDone());
+    cache.putObject(0, "loaded");
+    assertEquals("loaded", waiter.get());
+    assertEquals(0, pendingLoads(cache).size());
+  }
+
+  @Test
+  void shouldLetTheLoadingThreadMissAgain() {
+    BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    assertNull(cache.getObject(0));
+    assertNull(cache.getObject(0));
+    cache.removeObject(0);
+    assertEquals(0, pendingLoads(cache).size());
+  }
+
+  @Test
+  void shouldFailWaitersWhenTheLoadFails() throws Exception {
+    BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    assertNull(cache.getObject(0));
+    Future<Object> waiter = executor.submit(() -> cache.getObject(0));
+    Thread.sleep(100);
+    SQLException cause = new SQLException("boom");
+    cache.failObject(0, cause);
+    ExecutionException e = assertThrows(ExecutionException.class, waiter::get);
+    assertTrue(e.getCause() instanceof CacheException);
+    assertSame(cause, e.getCause().getCause());
+    assertEquals(0, pendingLoads(cache).size());
+  }
+
+  @Test
+  void shouldLetAWaiterLoadWhenTheItemIsReleased() throws Exception {
+    BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    assertNull(cache.getObject(0));
+    Future<Object> waiter = executor.submit(() -> {
+      Object value = cache.getObject(0);
+      cache.putObject(0, "reloaded");
+      return value;
+    });
+    Thread.sleep(100);
+    cache.removeObject(0);
+    assertNull(waiter.get());
+    assertEquals("reloaded", cache.getObject(0));
+    assertEquals(0, pendingLoads(cache).size());
+  }
+
+  @Test
+  void shouldTimeOutWaitingForALoad() throws Exception {
+    BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    cache.setTimeout(100);
+    assertNull(cache.getObject(0));
+    Future<Object> waiter = executor.submit(() -> cache.getObject(0));
+    ExecutionException e = assertThrows(ExecutionException.class, waiter::get);
+    assertTrue(e.getCause() instanceof CacheException);
+  }
+
+  private Map<?, ?> pendingLoads(BlockingCache cache) {
+    try {
+      Field field = BlockingCache.class.getDeclaredField("loads");
+      field.setAccessible(true);
+      return (Map<?, ?>) field.get(cache);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+}
@@ -0,0 +1,103 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.CacheTagIndex;
+import org.apache.ibatis.cache.decorators.TransactionalCache;
+import org.apache.ibatis.cache.impl.LoopbackCacheInvalidationBus;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.session.Configuration;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+class CacheInvalidationBusTest {
+
+  @Test
+  void shouldFlushCacheOnOtherNodes() {
+    LoopbackCacheInvalidationBus bus = new LoopbackCacheInvalidationBus();
+    Configuration node1 = newNode(bus);
+    Configuration node2 = newNode(bus.newNode());
+    node1.getCache("blog").putObject(key(1, "author"), "author");
+    node2.getCache("blog").putObject(key(1, "author"), "author");
+
+    TransactionalCache txCache = new TransactionalCache(node1.getCache("blog"), node1.getCacheInvalidationBus());
+    txCache.clear();
+    txCache.commit();
+
+    assertNull(node1.getCache("blog").getObject(key(1, "author")));
+    assertNull(node2.getCache("blog").getObject(key(1, "author")));
+  }
+
+  @Test
+  void shouldEvictTagsOnOtherNodes() {
+    LoopbackCacheInvalidationBus bus = new LoopbackCacheInvalidationBus();
+    Configuration node1 = newNode(bus);
+    Configuration node2 = newNode(bus.newNode());
+    Cache cache = node2.getCache("blog");
+    cache.putObject(key(1, "author"), "author");
+    cache.putObject(key(2, "post"), "post");
+
+    TransactionalCache txCache = new TransactionalCache(node1.getCache("blog"), node1.getCacheInvalidationBus());
+    txCache.evictTags(node1.getCacheTagIndex("blog"), new String[] {"author"});
+    txCache.commit();
+
+    assertNull(cache.getObject(key(1, "author")));
+    assertEquals("post", cache.getObject(key(2, "post")));
+  }
+
+  @Test
+  void shouldNotPublishWithoutInvalidation() {
+    LoopbackCacheInvalidationBus bus = new LoopbackCacheInvalidationBus();
+    Configuration node1 = newNode(bus);
+    Configuration node2 = newNode(bus.newNode());
+    node2.getCache("blog").putObject(key(1, "author"), "author");
+
+    TransactionalCache txCache = new TransactionalCache(node1.getCache("blog"), node1.getCacheInvalidationBus());
+    txCache.putObject(key(2, "post"), "post");
+    txCache.commit();
+
+    assertEquals("author", node2.getCache("blog").getObject(key(1, "author")));
+    assertEquals("post", node1.getCache("blog").getObject(key(2, "post")));
+  }
+
+  @Test
+  void shouldNotDeliverToPublishingNode() {
+    LoopbackCacheInvalidationBus bus = new LoopbackCacheInvalidationBus();
+    Configuration node = newNode(bus);
+    bus.newNode();
+    Cache cache = node.getCache("blog");
+    cache.putObject(key(1, "author"), "author");
+    bus.publish(new CacheInvalidation("blog", null));
+    assertEquals("author", cache.getObject(key(1, "author")));
+  }
+
+  private static Configuration newNode(CacheInvalidationBus bus) {
+    Configuration configuration = new Configuration();
+    CacheBuilder builder = new CacheBuilder("blog");
+    configuration.addCache(builder.build());
+    configuration.addCacheTagIndexFactory("blog", builder::buildTagIndex);
+    configuration.enableCacheTags("blog");
+    configuration.setCacheInvalidationBus(bus);
+    return configuration;
+  }
+
+  private static CacheKey key(int id, String... tags) {
+    CacheKey key = new CacheKey(new Object[] {id});
+    key.setTags(tags);
+    return key;
+  }
+
+}
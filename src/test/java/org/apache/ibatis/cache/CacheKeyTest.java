@@ -17,6 +17,10 @@ package org.apache.ibatis.cache;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
@@ -87,6 +91,48 @@ class CacheKeyTest {
     assertTrue(key1.equals(key2));
   }
 
+  @Test
+  void shouldTestCacheKeysWithManyComponents() throws Exception {
+    CacheKey key1 = new CacheKey();
+    CacheKey key2 = new CacheKey();
+    for (int i = 0; i < 20; i++) {
+      key1.update(i);
+      key2.update(i);
+    }
+    assertEquals(20, key1.getUpdateCount());
+    assertEquals(key1, key2);
+    assertEquals(key1.hashCode(), key2.hashCode());
+    CacheKey clone = key1.clone();
+    clone.update(20);
+    assertEquals(key1, key2);
+    assertNotEquals(key1, clone);
+  }
+
+  @Test
+  void shouldStartCacheKeysWithTheSqlShapeOfTheStatement() {
+    Configuration configuration = new Configuration();
+    MappedStatement ms = new MappedStatement.Builder(configuration, "select",
+        new StaticSqlSource(configuration, "select * from a"), SqlCommandType.SELECT).build();
+    for (int i = 0; i < 3; i++) {
+      // dynamic SQL is a new string on every call, alternating between shapes
+      CacheKey a1 = ms.newCacheKey(new String("select * from a"));
+      CacheKey b = ms.newCacheKey(new String("select * from b"));
+      CacheKey a2 = ms.newCacheKey(new String("select * from a"));
+      assertEquals(a1, a2);
+      assertEquals(a1.hashCode(), a2.hashCode());
+      assertNotEquals(a1, b);
+      assertEquals(2, b.getUpdateCount());
+    }
+  }
+
+  @Test
+  void shouldTestCacheKeysNotEqualDueToSmallNumberDifference() {
+    CacheKey key1 = new CacheKey(new Object[] { "statement", 0, 10 });
+    CacheKey key2 = new CacheKey(new Object[] { "statement", 1, 9 });
+    assertNotEquals(key1, key2);
+    assertNotEquals(key1.hashCode(), key2.hashCode());
+  }
+
   @Test
   void serializationExceptionTest() {
     CacheKey cacheKey = new CacheKey();
@@ -103,6 +149,20 @@ class CacheKeyTest {
     Assertions.assertEquals(cacheKey, serialize(cacheKey));
   }
 
+  @Test
+  void serializationRecomputesHashCodeTest() throws Exception {
+    CacheKey cacheKey = new CacheKey();
+    for (int i = 0; i < 20; i++) {
+      cacheKey.update(i);
+    }
+    cacheKey.update(Thread.State.NEW);
+    CacheKey deserialized = serialize(cacheKey);
+    Assertions.assertEquals(cacheKey, deserialized);
+    Assertions.assertEquals(cacheKey.hashCode(), deserialized.hashCode());
+    deserialized.update("more");
+    Assertions.assertEquals(22, deserialized.getUpdateCount());
+  }
+
   private static <T> T serialize(T object) throws Exception {
       ByteArrayOutputStream baos = new ByteArrayOutputStream();
       new ObjectOutputStream(baos).writeObject(object);
@@ -0,0 +1,93 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.CacheStats.EvictionCause;
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.impl.ConcurrentCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+class CacheStatsTest {
+
+  @Test
+  void shouldRecordHitsAndMisses() {
+    Cache cache = new CacheBuilder("default").build();
+    cache.putObject(0, 0);
+    cache.getObject(0);
+    cache.getObject(0);
+    cache.getObject(1);
+    CacheStats stats = cache.getStats();
+    assertEquals(1, stats.getPutCount());
+    assertEquals(2, stats.getHitCount());
+    assertEquals(1, stats.getMissCount());
+    assertEquals(3, stats.getRequestCount());
+    assertEquals(2.0 / 3.0, stats.getHitRatio(), 0.0001);
+    assertEquals(1, stats.getSize());
+  }
+
+  @Test
+  void shouldRecordSizeEvictions() {
+    Cache cache = new CacheBuilder("default").size(5).build();
+    for (int i = 0; i < 8; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(3, cache.getStats().getEvictionCount(EvictionCause.SIZE));
+    assertEquals(5, cache.getStats().getSize());
+  }
+
+  @Test
+  void shouldRecordSizeEvictionsOfSelfEvictingCaches() {
+    Cache cache = new CacheBuilder("default").implementation(ConcurrentCache.class).size(5).build();
+    for (int i = 0; i < 8; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(3, cache.getStats().getEvictionCount(EvictionCause.SIZE));
+  }
+
+  @Test
+  void shouldRecordRemovalsAndClears() {
+    Cache cache = new CacheBuilder("default").build();
+    cache.putObject(0, 0);
+    cache.putObject(1, 1);
+    cache.removeObject(0);
+    cache.removeObject(2);
+    cache.clear();
+    CacheStats stats = cache.getStats();
+    assertEquals(1, stats.getEvictionCount(EvictionCause.REMOVED));
+    assertEquals(1, stats.getEvictionCount());
+    assertEquals(1, stats.getClearCount());
+    assertEquals(0, stats.getSize());
+  }
+
+  @Test
+  void shouldRecordLoadTime() {
+    CacheStats stats = new LoggingCache(new PerpetualCache("default")).getStats();
+    stats.recordLoad(100);
+    stats.recordLoad(300);
+    assertEquals(2, stats.getLoadCount());
+    assertEquals(400, stats.getTotalLoadTime());
+    assertEquals(200.0, stats.getAverageLoadTime(), 0.0001);
+  }
+
+  @Test
+  void shouldNotRecordStatsForUndecoratedCaches() {
+    assertNull(new PerpetualCache("default").getStats());
+  }
+
+}
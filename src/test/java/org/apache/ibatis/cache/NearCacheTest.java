@@ -0,0 +1,119 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.NearCache;
+import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+class NearCacheTest {
+
+  @Test
+  void shouldServeHitsFromNearTier() {
+    Cache remote = new SynchronizedCache(new PerpetualCache("default"));
+    NearCache cache = new NearCache(remote);
+    cache.putObject(0, "zero");
+    remote.removeObject(0);
+    assertEquals("zero", cache.getObject(0));
+  }
+
+  @Test
+  void shouldLoadMissesFromDelegate() {
+    Cache remote = new SynchronizedCache(new PerpetualCache("default"));
+    NearCache cache = new NearCache(remote);
+    remote.putObject(0, "zero");
+    assertEquals("zero", cache.getObject(0));
+    remote.removeObject(0);
+    assertEquals("zero", cache.getObject(0));
+  }
+
+  @Test
+  void shouldDropNearTierWhenAnotherNodeFlushes() {
+    Cache remote = new SynchronizedCache(new PerpetualCache("default"));
+    NearCache node1 = new NearCache(remote);
+    NearCache node2 = new NearCache(remote);
+    node1.setNearCacheCheckInterval(0);
+    node2.putObject(0, "zero");
+    assertEquals("zero", node1.getObject(0));
+    node2.clear();
+    assertNull(node1.getObject(0));
+  }
+
+  @Test
+  void shouldDropNearTierWhenAnotherNodeRemoves() {
+    Cache remote = new SynchronizedCache(new PerpetualCache("default"));
+    NearCache node1 = new NearCache(remote);
+    NearCache node2 = new NearCache(remote);
+    node1.setNearCacheCheckInterval(0);
+    node2.putObject(0, "zero");
+    node2.putObject(1, "one");
+    assertEquals("zero", node1.getObject(0));
+    assertEquals("one", node1.getObject(1));
+    node2.removeObject(0);
+    assertNull(node1.getObject(0));
+    assertEquals("one", node1.getObject(1));
+  }
+
+  @Test
+  void shouldKeepNearTierWhenAnotherNodeRemovesMissingEntry() {
+    Cache remote = new SynchronizedCache(new PerpetualCache("default"));
+    NearCache node1 = new NearCache(remote);
+    NearCache node2 = new NearCache(remote);
+    node1.setNearCacheCheckInterval(0);
+    node2.putObject(0, "zero");
+    assertEquals("zero", node1.getObject(0));
+    remote.removeObject(0);
+    node2.removeObject(1);
+    assertEquals("zero", node1.getObject(0));
+  }
+
+  @Test
+  void shouldKeepNearTierUntilVersionIsChecked() {
+    Cache remote = new SynchronizedCache(new PerpetualCache("default"));
+    NearCache node1 = new NearCache(remote);
+    NearCache node2 = new NearCache(remote);
+    node1.setNearCacheCheckInterval(60000);
+    node2.putObject(0, "zero");
+    assertEquals("zero", node1.getObject(0));
+    node2.clear();
+    assertEquals("zero", node1.getObject(0));
+  }
+
+  @Test
+  void shouldRemoveItemOnDemand() {
+    Cache cache = new NearCache(new PerpetualCache("default"));
+    cache.putObject(0, 0);
+    assertNotNull(cache.getObject(0));
+    cache.removeObject(0);
+    assertNull(cache.getObject(0));
+  }
+
+  @Test
+  void shouldFlushAllItemsOnDemand() {
+    Cache cache = new NearCache(new PerpetualCache("default"));
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertNotNull(cache.getObject(0));
+    assertNotNull(cache.getObject(4));
+    cache.clear();
+    assertNull(cache.getObject(0));
+    assertNull(cache.getObject(4));
+  }
+
+}
@@ -0,0 +1,103 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.ibatis.cache.impl.OffHeapCache;
+import org.junit.jupiter.api.Test;
+
+class OffHeapCacheTest {
+
+  @Test
+  void shouldReturnCopiesOfStoredItems() {
+    OffHeapCache cache = new OffHeapCache("default");
+    List<String> rows = new ArrayList<>(Arrays.asList("a", "b"));
+    cache.putObject(0, rows);
+    rows.add("c");
+    Object first = cache.getObject(0);
+    assertEquals(Arrays.asList("a", "b"), first);
+    assertNotSame(first, cache.getObject(0));
+    assertTrue(cache.getUsedBytes() > 0);
+  }
+
+  @Test
+  void shouldStoreBytesAsIs() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.putObject(0, new byte[] {1, 2, 3});
+    assertArrayEquals(new byte[] {1, 2, 3}, (byte[]) cache.getObject(0));
+    assertEquals(4, cache.getUsedBytes());
+  }
+
+  @Test
+  void shouldEvictOldestSlabWhenFull() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setSlabSize(100);
+    cache.setMaxBytes(200);
+    for (int i = 0; i < 6; i++) {
+      cache.putObject(i, new byte[49]);
+    }
+    assertEquals(200, cache.getAllocatedBytes());
+    assertEquals(200, cache.getUsedBytes());
+    assertNull(cache.getObject(1));
+    assertNotNull(cache.getObject(2));
+    cache.putObject(6, new byte[49]);
+    assertNull(cache.getObject(2));
+    assertNull(cache.getObject(3));
+    assertNotNull(cache.getObject(4));
+    assertNotNull(cache.getObject(6));
+    assertEquals(200, cache.getAllocatedBytes());
+    assertEquals(150, cache.getUsedBytes());
+  }
+
+  @Test
+  void shouldNotCacheItemsLargerThanASlab() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setSlabSize(100);
+    cache.putObject(0, new byte[10]);
+    cache.putObject(0, new byte[100]);
+    assertNull(cache.getObject(0));
+    assertEquals(0, cache.getUsedBytes());
+  }
+
+  @Test
+  void shouldRemoveItemOnDemand() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.putObject(0, 0);
+    assertNotNull(cache.getObject(0));
+    cache.removeObject(0);
+    assertNull(cache.getObject(0));
+    assertEquals(0, cache.getUsedBytes());
+  }
+
+  @Test
+  void shouldFlushAllItemsOnDemand() {
+    Cache cache = new OffHeapCache("default");
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertNotNull(cache.getObject(0));
+    assertNotNull(cache.getObject(4));
+    cache.clear();
+    assertNull(cache.getObject(0));
+    assertNull(cache.getObject(4));
+  }
+
+}
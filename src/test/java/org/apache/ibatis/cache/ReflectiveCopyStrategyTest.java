@@ -0,0 +1,107 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.cache.decorators.ReflectiveCopyStrategy;
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+import org.junit.jupiter.api.Test;
+
+class ReflectiveCopyStrategyTest {
+
+  @Test
+  void shouldReturnIndependentCopies() {
+    Cache cache = new SerializedCache(new PerpetualCache("default"));
+    ((SerializedCache) cache).setCopyStrategy(new ReflectiveCopyStrategy());
+    List<Author> authors = new ArrayList<>();
+    authors.add(new Author(1, "jim", "*******", "jim@apache.org", "bio", Section.NEWS));
+    cache.putObject(0, authors);
+    authors.get(0).setUsername("changed");
+
+    @SuppressWarnings("unchecked")
+    List<Author> first = (List<Author>) cache.getObject(0);
+    @SuppressWarnings("unchecked")
+    List<Author> second = (List<Author>) cache.getObject(0);
+    assertEquals("jim", first.get(0).getUsername());
+    assertEquals(Section.NEWS, first.get(0).getFavouriteSection());
+    assertNotSame(first, second);
+    assertNotSame(first.get(0), second.get(0));
+    assertEquals(first, second);
+  }
+
+  @Test
+  void shouldPreserveSharedReferencesAndCycles() {
+    ReflectiveCopyStrategy strategy = new ReflectiveCopyStrategy();
+    Node parent = new Node("parent");
+    Node child = new Node("child");
+    parent.children.add(child);
+    child.parent = parent;
+    Map<String, Node> nodes = new HashMap<>();
+    nodes.put("parent", parent);
+    nodes.put("child", child);
+
+    @SuppressWarnings("unchecked")
+    Map<String, Node> copy = (Map<String, Node>) strategy.copyFromCache(strategy.copyToCache(nodes));
+    Node parentCopy = copy.get("parent");
+    Node childCopy = copy.get("child");
+    assertNotSame(parent, parentCopy);
+    assertSame(childCopy, parentCopy.children.get(0));
+    assertSame(parentCopy, childCopy.parent);
+    assertEquals("child", childCopy.name);
+  }
+
+  @Test
+  void shouldShareImmutableValuesAndCopyMutableOnes() {
+    ReflectiveCopyStrategy strategy = new ReflectiveCopyStrategy();
+    BigDecimal amount = new BigDecimal("12.50");
+    Date date = new Date();
+    int[] numbers = {1, 2, 3};
+
+    assertSame(amount, strategy.copyToCache(amount));
+    Date dateCopy = (Date) strategy.copyToCache(date);
+    assertNotSame(date, dateCopy);
+    assertEquals(date, dateCopy);
+    int[] numbersCopy = (int[]) strategy.copyToCache(numbers);
+    assertNotSame(numbers, numbersCopy);
+    assertEquals(3, numbersCopy[2]);
+  }
+
+  static class Node {
+    private final String name;
+    private Node parent;
+    private final List<Node> children = new ArrayList<>();
+
+    Node() {
+      this(null);
+    }
+
+    Node(String name) {
+      this.name = name;
+    }
+  }
+
+}
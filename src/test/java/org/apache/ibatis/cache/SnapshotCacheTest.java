@@ -0,0 +1,249 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.ExpiringCache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.SnapshotCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+class SnapshotCacheTest {
+
+  private Path directory;
+
+  @BeforeEach
+  void createDirectory() throws IOException {
+    directory = Files.createTempDirectory("snapshots");
+  }
+
+  @AfterEach
+  void deleteDirectory() throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+    }
+  }
+
+  @Test
+  void shouldLoadSnapshotOfSameMapper() throws Exception {
+    SnapshotCache cache = newCache("hash");
+    cache.putObject(new CacheKey(new Object[] {"select", 1}), "one");
+    cache.putObject(new CacheKey(new Object[] {"select", 2}), new byte[] {1, 2, 3});
+    cache.snapshot().get();
+
+    SnapshotCache restarted = newCache("hash");
+    assertEquals(2, restarted.load());
+    assertEquals("one", restarted.getObject(new CacheKey(new Object[] {"select", 1})));
+    assertArrayEquals(new byte[] {1, 2, 3}, (byte[]) restarted.getObject(new CacheKey(new Object[] {"select", 2})));
+  }
+
+  @Test
+  void shouldWriteLargeEntries() throws Exception {
+    SnapshotCache cache = newCache("hash");
+    byte[] large = new byte[200 * 1024];
+    Arrays.fill(large, (byte) 7);
+    cache.putObject(1, large);
+    cache.putObject(2, "two");
+    cache.snapshot().get();
+
+    SnapshotCache restarted = newCache("hash");
+    assertEquals(2, restarted.load());
+    assertArrayEquals(large, (byte[]) restarted.getObject(1));
+    assertEquals("two", restarted.getObject(2));
+  }
+
+  @Test
+  void shouldIgnoreSnapshotOfChangedMapper() throws Exception {
+    SnapshotCache cache = newCache("hash");
+    cache.putObject(1, "one");
+    cache.snapshot().get();
+
+    SnapshotCache restarted = newCache("changed");
+    assertEquals(0, restarted.load());
+    assertNull(restarted.getObject(1));
+  }
+
+  @Test
+  void shouldIgnoreSnapshotOfOtherDatabase() throws Exception {
+    SnapshotCache cache = newCache("hash");
+    cache.setDataSourceUrl("jdbc:hsqldb:mem:production");
+    cache.putObject(1, "one");
+    cache.snapshot().get();
+
+    SnapshotCache other = newCache("hash");
+    other.setDataSourceUrl("jdbc:hsqldb:mem:staging");
+    assertEquals(0, other.load());
+    SnapshotCache otherEnvironment = newCache("hash");
+    otherEnvironment.setDataSourceUrl("jdbc:hsqldb:mem:production");
+    otherEnvironment.setEnvironmentId("staging");
+    assertEquals(0, otherEnvironment.load());
+    SnapshotCache restarted = newCache("hash");
+    restarted.setDataSourceUrl("jdbc:hsqldb:mem:production");
+    assertEquals(1, restarted.load());
+  }
+
+  @Test
+  void shouldRequireSnapshotDirectory() {
+    SnapshotCache cache = new SnapshotCache(new PerpetualCache("default"));
+    cache.setMapperHash("hash");
+    assertThrows(CacheException.class, cache::initialize);
+  }
+
+  @Test
+  void shouldWriteSnapshotsForOwnerOnly() throws Exception {
+    assumeTrue(directory.getFileSystem().supportedFileAttributeViews().contains("posix"));
+    SnapshotCache cache = new SnapshotCache(new PerpetualCache("default"));
+    cache.setSnapshotDirectory(directory.resolve("snapshots").toString());
+    cache.setMapperHash("hash");
+    cache.putObject(1, "one");
+    cache.snapshot().get();
+    assertEquals(PosixFilePermissions.fromString("rwx------"),
+        Files.getPosixFilePermissions(cache.getSnapshotFile().getParent()));
+    assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(cache.getSnapshotFile()));
+  }
+
+  @Test
+  void shouldNotLoadSnapshotWritableByOtherUsers() throws Exception {
+    assumeTrue(directory.getFileSystem().supportedFileAttributeViews().contains("posix"));
+    SnapshotCache cache = newCache("hash");
+    cache.putObject(1, "one");
+    cache.snapshot().get();
+    Files.setPosixFilePermissions(cache.getSnapshotFile(), PosixFilePermissions.fromString("rw-rw-rw-"));
+
+    SnapshotCache restarted = newCache("hash");
+    assertEquals(0, restarted.load());
+  }
+
+  @Test
+  void shouldNotPromoteEntriesWhenCopying() throws Exception {
+    LruCache lru = new LruCache(new PerpetualCache("default"));
+    lru.setSize(2);
+    SnapshotCache cache = new SnapshotCache(lru);
+    cache.setSnapshotDirectory(directory.toString());
+    cache.setMapperHash("hash");
+    cache.putObject(1, "one");
+    cache.putObject(2, "two");
+    cache.getObject(1);
+    cache.snapshot().get();
+    cache.putObject(3, "three");
+    assertEquals("one", cache.getObject(1));
+    assertNull(cache.getObject(2));
+  }
+
+  @Test
+  void shouldNotClaimRefreshWhenCopying() throws Exception {
+    ExpiringCache expiring = new ExpiringCache(new PerpetualCache("default"));
+    expiring.setRefreshAhead(expiring.getTimeToLive());
+    SnapshotCache cache = new SnapshotCache(expiring);
+    cache.setSnapshotDirectory(directory.toString());
+    cache.setMapperHash("hash");
+    cache.putObject(1, "one");
+    cache.snapshot().get();
+    // the first reader is still the one elected to reload the entry
+    assertNull(cache.getObject(1));
+    assertEquals("one", cache.getObject(1));
+
+    SnapshotCache restarted = new SnapshotCache(new PerpetualCache("default"));
+    restarted.setSnapshotDirectory(directory.toString());
+    restarted.setMapperHash("hash");
+    assertEquals(1, restarted.load());
+  }
+
+  @Test
+  void shouldIgnoreSnapshotWithCorruptLength() throws Exception {
+    SnapshotCache cache = newCache("hash");
+    cache.putObject(1, "one");
+    cache.snapshot().get();
+    byte[] content = Files.readAllBytes(cache.getSnapshotFile());
+    // magic, version, mapper hash, database digest and count precede the length of the first key
+    ByteBuffer.wrap(content).putInt(4 + 4 + 4 + 4 + 4 + 64 + 4, Integer.MAX_VALUE);
+    Files.write(cache.getSnapshotFile(), content);
+
+    SnapshotCache restarted = newCache("hash");
+    assertEquals(0, restarted.load());
+    assertNull(restarted.getObject(1));
+  }
+
+  @Test
+  void shouldSkipEntriesThatAreNotSerializable() throws Exception {
+    SnapshotCache cache = newCache("hash");
+    cache.putObject(1, new Object());
+    cache.putObject(2, "two");
+    cache.snapshot().get();
+
+    SnapshotCache restarted = newCache("hash");
+    assertEquals(1, restarted.load());
+    assertEquals("two", restarted.getObject(2));
+  }
+
+  @Test
+  void shouldDeleteSnapshotOnFlush() throws Exception {
+    SnapshotCache cache = newCache("hash");
+    cache.putObject(1, "one");
+    cache.snapshot().get();
+    assertTrue(Files.exists(cache.getSnapshotFile()));
+    cache.clear();
+    // the snapshots are written and deleted in order by a single thread
+    SnapshotCache other = new SnapshotCache(new PerpetualCache("other"));
+    other.setSnapshotDirectory(directory.toString());
+    other.setMapperHash("hash");
+    other.snapshot().get();
+    assertFalse(Files.exists(cache.getSnapshotFile()));
+  }
+
+  @Test
+  void shouldRemoveItemOnDemand() {
+    Cache cache = newCache("hash");
+    cache.putObject(0, 0);
+    assertNotNull(cache.getObject(0));
+    cache.removeObject(0);
+    assertNull(cache.getObject(0));
+  }
+
+  @Test
+  void shouldFlushAllItemsOnDemand() {
+    Cache cache = newCache("hash");
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertNotNull(cache.getObject(0));
+    assertNotNull(cache.getObject(4));
+    cache.clear();
+    assertNull(cache.getObject(0));
+    assertNull(cache.getObject(4));
+  }
+
+  private SnapshotCache newCache(String mapperHash) {
+    SnapshotCache cache = new SnapshotCache(new PerpetualCache("org.apache.ibatis.domain.blog.mappers.BlogMapper"));
+    cache.setSnapshotDirectory(directory.toString());
+    cache.setMapperHash(mapperHash);
+    return cache;
+  }
+
+}
@@ -0,0 +1,188 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.CacheTagIndex;
+import org.apache.ibatis.cache.decorators.TransactionalCache;
+import org.apache.ibatis.cache.impl.ConcurrentCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.submitted.cache.CustomCache;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+class TaggedCacheTest {
+
+  @Test
+  void shouldEvictOnlyEntriesSharingATag() {
+    CacheBuilder builder = new CacheBuilder("default");
+    Cache cache = builder.build();
+    CacheTagIndex index = builder.buildTagIndex();
+    CacheKey author = key(1, "author");
+    CacheKey blog = key(2, "blog", "author");
+    CacheKey post = key(3, "post");
+    cache.putObject(author, "author");
+    cache.putObject(blog, "blog");
+    cache.putObject(post, "post");
+    index.evict(Collections.singleton("author"));
+    assertNull(cache.getObject(author));
+    assertNull(cache.getObject(blog));
+    assertEquals("post", cache.getObject(post));
+  }
+
+  @Test
+  void shouldEvictUntaggedEntriesWithAnyTag() {
+    CacheBuilder builder = new CacheBuilder("default");
+    Cache cache = builder.build();
+    CacheTagIndex index = builder.buildTagIndex();
+    cache.putObject(key(1), "untagged");
+    cache.putObject(key(2, "post"), "post");
+    index.evict(Collections.singleton("author"));
+    assertNull(cache.getObject(key(1)));
+    assertEquals("post", cache.getObject(key(2, "post")));
+  }
+
+  @Test
+  void shouldForgetEntriesEvictedBySize() {
+    CacheBuilder builder = new CacheBuilder("default").size(5);
+    Cache cache = builder.build();
+    CacheTagIndex index = builder.buildTagIndex();
+    for (int i = 0; i < 10; i++) {
+      cache.putObject(key(i, "author"), i);
+    }
+    assertEquals(5, cache.getSize());
+    index.evict(Collections.singleton("author"));
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  void shouldForgetEntriesEvictedBySelfEvictingCaches() {
+    CacheBuilder builder = new CacheBuilder("default").implementation(ConcurrentCache.class).size(5);
+    Cache cache = builder.build();
+    CacheTagIndex index = builder.buildTagIndex();
+    for (int i = 0; i < 10; i++) {
+      cache.putObject(key(i, "author"), i);
+    }
+    assertEquals(5, cache.getSize());
+    assertEquals(5, index.size());
+  }
+
+  @Test
+  void shouldIndexEntriesStoredBeforeTheIndex() {
+    CacheTagIndex index = new CacheTagIndex();
+    PerpetualCache cache = new PerpetualCache("default");
+    cache.putObject(key(1, "author"), "author");
+    cache.setTagIndex(index);
+    index.setCache(cache);
+    index.evict(Collections.singleton("author"));
+    assertNull(cache.getObject(key(1, "author")));
+  }
+
+  @Test
+  void shouldNotIndexCustomCaches() {
+    CacheBuilder builder = new CacheBuilder("default").implementation(CustomCache.class);
+    builder.build();
+    assertNull(builder.buildTagIndex());
+  }
+
+  @Test
+  void shouldBuildTheIndexOnlyForTaggedStatements() {
+    Configuration configuration = new Configuration();
+    CacheBuilder builder = new CacheBuilder("blog");
+    Cache cache = builder.build();
+    configuration.addCache(cache);
+    configuration.addCacheTagIndexFactory("blog", builder::buildTagIndex);
+    cache.putObject(key(1, "author"), "author");
+    assertNull(configuration.getCacheTagIndex("blog"));
+    configuration.enableCacheTags("blog");
+    CacheTagIndex index = configuration.getCacheTagIndex("blog");
+    assertNotNull(index);
+    configuration.enableCacheTags("blog");
+    assertSame(index, configuration.getCacheTagIndex("blog"));
+    index.evict(Collections.singleton("author"));
+    assertNull(cache.getObject(key(1, "author")));
+  }
+
+  @Test
+  void shouldTagSelfEvictingCaches() {
+    CacheBuilder builder = new CacheBuilder("default").implementation(ConcurrentCache.class);
+    Cache cache = builder.build();
+    CacheTagIndex index = builder.buildTagIndex();
+    cache.putObject(key(1, "author"), "author");
+    cache.putObject(key(2, "post"), "post");
+    index.evict(Collections.singleton("post"));
+    assertEquals("author", cache.getObject(key(1, "author")));
+    assertNull(cache.getObject(key(2, "post")));
+  }
+
+  @Test
+  void shouldEvictTagsOnCommit() {
+    CacheBuilder builder = new CacheBuilder("default");
+    Cache cache = builder.build();
+    CacheTagIndex index = builder.buildTagIndex();
+    cache.putObject(key(1, "author"), "author");
+    cache.putObject(key(2, "post"), "post");
+    TransactionalCache txCache = new TransactionalCache(cache);
+    txCache.putObject(key(3, "author"), "pending");
+    txCache.evictTags(index, new String[] {"author"});
+    assertNull(txCache.getObject(key(1, "author")));
+    assertEquals("author", cache.getObject(key(1, "author")));
+    txCache.commit();
+    assertNull(cache.getObject(key(1, "author")));
+    assertNull(cache.getObject(key(3, "author")));
+    assertEquals("post", cache.getObject(key(2, "post")));
+  }
+
+  @Test
+  void shouldRemoveItemOnDemand() {
+    CacheTagIndex index = new CacheTagIndex();
+    PerpetualCache cache = new PerpetualCache("default");
+    cache.setTagIndex(index);
+    index.setCache(cache);
+    cache.putObject(key(0, "author"), 0);
+    assertNotNull(cache.getObject(key(0, "author")));
+    cache.removeObject(key(0, "author"));
+    assertNull(cache.getObject(key(0, "author")));
+    assertEquals(0, index.size());
+  }
+
+  @Test
+  void shouldFlushAllItemsOnDemand() {
+    CacheTagIndex index = new CacheTagIndex();
+    PerpetualCache cache = new PerpetualCache("default");
+    cache.setTagIndex(index);
+    index.setCache(cache);
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(key(i, "author"), i);
+    }
+    assertNotNull(cache.getObject(key(0, "author")));
+    assertNotNull(cache.getObject(key(4, "author")));
+    cache.clear();
+    assertNull(cache.getObject(key(0, "author")));
+    assertNull(cache.getObject(key(4, "author")));
+    assertEquals(0, index.size());
+  }
+
+  private static CacheKey key(int id, String... tags) {
+    CacheKey key = new CacheKey(new Object[] {id});
+    key.setTags(tags);
+    return key;
+  }
+
+}
@@ -0,0 +1,135 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.ibatis.cache.decorators.CacheWeightBudget;
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.decorators.WeightedCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.junit.jupiter.api.Test;
+
+class WeightedCacheTest {
+
+  @Test
+  void shouldEvictLeastRecentlyUsedItemsBeyondMaxWeight() {
+    WeightedCache cache = new WeightedCache(new PerpetualCache("default"));
+    cache.setRowWeight(10);
+    cache.setMaxWeight(100);
+    cache.putObject(0, rows(4));
+    cache.putObject(1, rows(4));
+    assertEquals(100, cache.getWeight());
+    assertNotNull(cache.getObject(0));
+    cache.putObject(2, rows(0));
+    assertNotNull(cache.getObject(0));
+    assertNull(cache.getObject(1));
+    assertNotNull(cache.getObject(2));
+    assertEquals(60, cache.getWeight());
+  }
+
+  @Test
+  void shouldNotCacheItemsHeavierThanMaxWeight() {
+    WeightedCache cache = new WeightedCache(new PerpetualCache("default"));
+    cache.setRowWeight(10);
+    cache.setMaxWeight(100);
+    cache.putObject(0, rows(1));
+    cache.putObject(1, rows(10));
+    assertNotNull(cache.getObject(0));
+    assertNull(cache.getObject(1));
+    assertEquals(20, cache.getWeight());
+  }
+
+  @Test
+  void shouldWeighSerializedValuesByTheirLength() {
+    WeightedCache weightedCache = new WeightedCache(new PerpetualCache("default"));
+    Cache cache = new SerializedCache(weightedCache);
+    cache.putObject(0, rows(1000));
+    long weight = weightedCache.getWeight();
+    assertTrue(weight > WeightedCache.DEFAULT_ROW_WEIGHT);
+    assertTrue(weight < 1000L * WeightedCache.DEFAULT_ROW_WEIGHT);
+  }
+
+  @Test
+  void shouldUseCustomWeigher() {
+    WeightedCache cache = new WeightedCache(new PerpetualCache("default"));
+    cache.setWeigher((key, value) -> ((String) value).length());
+    cache.setMaxWeight(10);
+    cache.putObject(0, "aaaa");
+    cache.putObject(1, "bbbb");
+    cache.putObject(0, "cccccc");
+    assertEquals(10, cache.getWeight());
+    cache.putObject(2, "d");
+    assertNull(cache.getObject(1));
+    assertEquals("cccccc", cache.getObject(0));
+    assertEquals(7, cache.getWeight());
+  }
+
+  @Test
+  void shouldEvictHeaviestCacheWhenBudgetIsExceeded() {
+    CacheWeightBudget budget = new CacheWeightBudget(100);
+    WeightedCache light = new WeightedCache(new PerpetualCache("light"));
+    WeightedCache heavy = new WeightedCache(new PerpetualCache("heavy"));
+    light.setRowWeight(10);
+    heavy.setRowWeight(10);
+    light.setWeightBudget(budget);
+    heavy.setWeightBudget(budget);
+    light.putObject(0, rows(1));
+    for (int i = 0; i < 10; i++) {
+      heavy.putObject(i, rows(1));
+    }
+    assertEquals(100, budget.getWeight());
+    assertNotNull(light.getObject(0));
+    assertEquals(80, heavy.getWeight());
+    assertEquals(4, heavy.getSize());
+  }
+
+  @Test
+  void shouldRemoveItemOnDemand() {
+    WeightedCache cache = new WeightedCache(new PerpetualCache("default"));
+    cache.putObject(0, 0);
+    assertNotNull(cache.getObject(0));
+    cache.removeObject(0);
+    assertNull(cache.getObject(0));
+    assertEquals(0, cache.getWeight());
+  }
+
+  @Test
+  void shouldFlushAllItemsOnDemand() {
+    CacheWeightBudget budget = new CacheWeightBudget(0);
+    WeightedCache cache = new WeightedCache(new PerpetualCache("default"));
+    cache.setWeightBudget(budget);
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertNotNull(cache.getObject(0));
+    assertNotNull(cache.getObject(4));
+    cache.clear();
+    assertNull(cache.getObject(0));
+    assertNull(cache.getObject(4));
+    assertEquals(0, cache.getWeight());
+    assertEquals(0, budget.getWeight());
+  }
+
+  private List<Object> rows(int count) {
+    return new ArrayList<>(Collections.nCopies(count, "row"));
+  }
+
+}
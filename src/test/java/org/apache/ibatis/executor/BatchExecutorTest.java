@@ -15,7 +15,16 @@
  */
 package org.apache.ibatis.executor;
 
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.transaction.Transaction;
+import org.apache.ibatis.transaction.jdbc.JdbcTransaction;
 import org.junit.jupiter.api.Test;
 
 class BatchExecutorTest extends BaseExecutorTest {
@@ -24,6 +33,51 @@ class BatchExecutorTest extends BaseExecutorTest {
   void dummy() {
   }
 
+  @Test
+  void shouldPassAutomaticallyExecutedBatchesToHandler() throws Exception {
+    List<BatchResult> handled = new ArrayList<>();
+    config.setBatchSize(2);
+    config.setBatchResultHandler(handled::add);
+    Executor executor = createExecutor(new JdbcTransaction(createBlogDataSource(), null, false));
+    try {
+      MappedStatement insertStatement = ExecutorTestHelper.prepareInsertAuthorMappedStatement(config);
+      for (int i = 0; i < 5; i++) {
+        executor.update(insertStatement, new Author(100 + i, "someone", "******", "someone@apache.org", null, Section.NEWS));
+      }
+      assertEquals(2, handled.size());
+      assertEquals(2, handled.get(0).getUpdateCounts().length);
+      assertEquals(2, handled.get(1).getParameterObjects().size());
+      List<BatchResult> results = executor.flushStatements();
+      assertEquals(1, results.size());
+      assertEquals(1, results.get(0).getUpdateCounts().length);
+    } finally {
+      executor.rollback(true);
+      executor.close(false);
+    }
+  }
+
+  @Test
+  void shouldAggregateAutomaticallyExecutedBatches() throws Exception {
+    config.setBatchSize(2);
+    Executor executor = createExecutor(new JdbcTransaction(createBlogDataSource(), null, false));
+    try {
+      MappedStatement insertStatement = ExecutorTestHelper.prepareInsertAuthorMappedStatement(config);
+      for (int i = 0; i < 5; i++) {
+        executor.update(insertStatement, new Author(100 + i, "someone", "******", "someone@apache.org", null, Section.NEWS));
+      }
+      List<BatchResult> results = executor.flushStatements();
+      assertEquals(2, results.size());
+      assertEquals(4, results.get(0).getUpdateCounts().length);
+      assertTrue(results.get(0).getParameterObjects().isEmpty());
+      assertEquals(1, results.get(1).getUpdateCounts().length);
+      assertEquals(1, results.get(1).getParameterObjects().size());
+      assertTrue(executor.flushStatements().isEmpty());
+    } finally {
+      executor.rollback(true);
+      executor.close(false);
+    }
+  }
+
   @Override
   protected Executor createExecutor(Transaction transaction) {
     return new BatchExecutor(config, transaction);
@@ -0,0 +1,100 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import static org.apache.ibatis.executor.ExecutionPlaceholder.EXECUTION_PLACEHOLDER;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.junit.jupiter.api.Test;
+
+class BoundedLocalCacheTest {
+
+  @Test
+  void shouldEvictLeastRecentlyUsedEntriesBeyondMaxSize() {
+    BoundedLocalCache cache = new BoundedLocalCache("default", 2, 0, true);
+    PerpetualCache outputParameters = new PerpetualCache("output");
+    cache.putObject(0, Arrays.asList("a"));
+    cache.putObject(1, Arrays.asList("b"));
+    outputParameters.putObject(1, "out");
+    cache.getObject(0);
+    cache.putObject(2, Arrays.asList("c"));
+    assertEquals(3, cache.getSize());
+    cache.trim(outputParameters);
+    assertEquals(2, cache.getSize());
+    assertNull(cache.getObject(1));
+    assertNull(outputParameters.getObject(1));
+    assertNotNull(cache.getObject(0));
+  }
+
+  @Test
+  void shouldEvictOldestEntriesWhenFifo() {
+    BoundedLocalCache cache = new BoundedLocalCache("default", 2, 0, false);
+    cache.putObject(0, Arrays.asList("a"));
+    cache.putObject(1, Arrays.asList("b"));
+    cache.getObject(0);
+    cache.putObject(2, Arrays.asList("c"));
+    cache.trim(new PerpetualCache("output"));
+    assertNull(cache.getObject(0));
+    assertNotNull(cache.getObject(1));
+  }
+
+  @Test
+  void shouldEvictBeyondMaxRows() {
+    BoundedLocalCache cache = new BoundedLocalCache("default", 0, 3, true);
+    cache.putObject(0, Arrays.asList("a", "b"));
+    cache.putObject(1, Arrays.asList("c", "d"));
+    assertEquals(4, cache.getRows());
+    cache.trim(new PerpetualCache("output"));
+    assertNull(cache.getObject(0));
+    assertEquals(2, cache.getRows());
+  }
+
+  @Test
+  void shouldNotEvictExecutionPlaceholders() {
+    BoundedLocalCache cache = new BoundedLocalCache("default", 1, 0, true);
+    cache.putObject(0, EXECUTION_PLACEHOLDER);
+    cache.putObject(1, Arrays.asList("a"));
+    cache.trim(new PerpetualCache("output"));
+    assertSame(EXECUTION_PLACEHOLDER, cache.getObject(0));
+    assertNull(cache.getObject(1));
+  }
+
+  @Test
+  void shouldCountRowsOfReplacedEntries() {
+    BoundedLocalCache cache = new BoundedLocalCache("default", 0, 0, true);
+    cache.putObject(0, EXECUTION_PLACEHOLDER);
+    assertEquals(0, cache.getRows());
+    cache.putObject(0, Arrays.asList("a", "b"));
+    assertEquals(2, cache.getRows());
+    cache.removeObject(0);
+    assertEquals(0, cache.getRows());
+  }
+
+  @Test
+  void shouldFlushAllItemsOnDemand() {
+    BoundedLocalCache cache = new BoundedLocalCache("default", 5, 0, true);
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    cache.clear();
+    assertEquals(0, cache.getSize());
+    assertEquals(0, cache.getRows());
+  }
+
+}
@@ -21,13 +21,23 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.datasource.pooled.PoolMetrics;
 import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.io.Resources;
 import org.hsqldb.jdbc.JDBCConnection;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
@@ -91,6 +101,632 @@ class PooledDataSourceTest extends BaseDataTest {
     c.close();
   }
 
+  @Test
+  void shouldInvalidateStaleHandlesOfReusedConnections() throws Exception {
+    for (boolean concurrentMode : new boolean[] { false, true }) {
+      PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+      try {
+        ds.setPoolConcurrentMode(concurrentMode);
+        ds.setPoolMaximumActiveConnections(1);
+        ds.setPoolMaximumCheckoutTime(50);
+        ds.setPoolTimeToWait(20);
+        Connection leaked = ds.getConnection();
+        Thread.sleep(100);
+        Connection claimed = ds.getConnection();
+        assertSame(PooledDataSource.unwrapConnection(leaked), PooledDataSource.unwrapConnection(claimed));
+        assertThrows(SQLException.class, leaked::getAutoCommit);
+        leaked.close();
+        assertEquals(1, ds.getPoolState().getActiveConnectionCount());
+        claimed.close();
+        assertThrows(SQLException.class, claimed::getAutoCommit);
+        claimed.close();
+        Connection reused = ds.getConnection();
+        assertThrows(SQLException.class, claimed::getAutoCommit);
+        assertThrows(SQLException.class, leaked::getAutoCommit);
+        reused.getAutoCommit();
+        reused.close();
+        assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+        assertEquals(1, ds.getPoolState().getClaimedOverdueConnectionCount());
+        assertEquals(0, ds.getPoolState().getBadConnectionCount());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldNotReturnTheConnectionOfTheNextHolderOnDoubleClose() throws Exception {
+    for (boolean concurrentMode : new boolean[] { false, true }) {
+      PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+      try {
+        ds.setPoolConcurrentMode(concurrentMode);
+        ds.setPoolMaximumActiveConnections(1);
+        ds.setPoolTimeToWait(20);
+        Connection first = ds.getConnection();
+        first.close();
+        Connection second = ds.getConnection();
+        assertSame(PooledDataSource.unwrapConnection(first), PooledDataSource.unwrapConnection(second));
+        first.close();
+        assertEquals(1, ds.getPoolState().getActiveConnectionCount());
+        assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+        second.getAutoCommit();
+        second.close();
+        assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldPoolConnectionsPerCredentials() throws Exception {
+    PooledDataSource setup = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try (Connection c = setup.getConnection(); Statement st = c.createStatement()) {
+      st.execute("CREATE USER \"tenant\" PASSWORD 'secret' ADMIN");
+      st.execute("CREATE USER \"other\" PASSWORD 'secret' ADMIN");
+    }
+    try {
+      for (boolean concurrentMode : new boolean[] { false, true }) {
+        PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+        try {
+          ds.setPoolConcurrentMode(concurrentMode);
+          ds.setPoolMaximumActiveConnections(2);
+          ds.setPoolMaximumIdleConnections(2);
+          Connection tenant = ds.getConnection("tenant", "secret");
+          assertEquals("tenant", tenant.getMetaData().getUserName());
+          Connection realTenant = PooledDataSource.unwrapConnection(tenant);
+          tenant.close();
+          Connection other = ds.getConnection();
+          assertNotSame(realTenant, PooledDataSource.unwrapConnection(other));
+          other.close();
+          tenant = ds.getConnection("tenant", "secret");
+          assertSame(realTenant, PooledDataSource.unwrapConnection(tenant));
+          tenant.close();
+          assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+          // at the cap, a third key replaces the least recently used idle connection
+          try (Connection third = ds.getConnection("other", "secret")) {
+            assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+          }
+          assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+          assertEquals(0, ds.getPoolState().getBadConnectionCount());
+        } finally {
+          ds.forceCloseAll();
+        }
+      }
+    } finally {
+      try (Connection c = setup.getConnection(); Statement st = c.createStatement()) {
+        st.execute("DROP USER \"tenant\"");
+        st.execute("DROP USER \"other\"");
+      }
+      setup.forceCloseAll();
+    }
+  }
+
+  @Test
+  void shouldResizePoolWithoutClosingActiveConnections() throws Exception {
+    for (boolean concurrentMode : new boolean[] { false, true }) {
+      PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+      try {
+        ds.setPoolConcurrentMode(concurrentMode);
+        ds.setPoolMaximumActiveConnections(3);
+        ds.setPoolMaximumIdleConnections(3);
+        Connection c1 = ds.getConnection();
+        Connection c2 = ds.getConnection();
+        ds.getConnection().close();
+        assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+        ds.setPoolMaximumActiveConnections(1);
+        assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+        c1.getAutoCommit();
+        c1.close();
+        assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+        c2.close();
+        assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+        assertEquals(0, ds.getPoolState().getBadConnectionCount());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldDrainConnectionsWhenConfigurationChanges() throws Exception {
+    for (boolean concurrentMode : new boolean[] { false, true }) {
+      PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+      try {
+        ds.setPoolConcurrentMode(concurrentMode);
+        Connection active = ds.getConnection();
+        Connection realActive = PooledDataSource.unwrapConnection(active);
+        ds.getConnection().close();
+        ds.setDefaultAutoCommit(false);
+        assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+        assertTrue(active.getAutoCommit());
+        Connection fresh = ds.getConnection();
+        assertFalse(fresh.getAutoCommit());
+        active.close();
+        assertTrue(realActive.isClosed());
+        fresh.close();
+        assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+        assertEquals(0, ds.getPoolState().getBadConnectionCount());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldOpenConnectionsOfWaitingThreadsWithTheCurrentCredentials() throws Exception {
+    PooledDataSource setup = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try (Connection c = setup.getConnection(); Statement st = c.createStatement()) {
+      st.execute("CREATE USER \"tenant\" PASSWORD 'secret' ADMIN");
+    }
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      for (boolean concurrentMode : new boolean[] { false, true }) {
+        PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+        try {
+          ds.setPoolConcurrentMode(concurrentMode);
+          ds.setPoolMaximumActiveConnections(1);
+          ds.setPoolTimeToWait(50);
+          Connection active = ds.getConnection();
+          Future<String> waiting = executor.submit(() -> {
+            try (Connection c = ds.getConnection()) {
+              return c.getMetaData().getUserName();
+            }
+          });
+          while (ds.getPoolState().getHadToWaitCount() == 0) {
+            Thread.sleep(10);
+          }
+          ds.setUsername("tenant");
+          ds.setPassword("secret");
+          active.close();
+          assertEquals("tenant", waiting.get(5, TimeUnit.SECONDS));
+          assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+        } finally {
+          ds.forceCloseAll();
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+      try (Connection c = setup.getConnection(); Statement st = c.createStatement()) {
+        st.execute("DROP USER \"tenant\"");
+      }
+      setup.forceCloseAll();
+    }
+  }
+
+  @Test
+  void shouldProperlyMaintainPoolInConcurrentMode() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolConcurrentMode(true);
+      ds.setPoolMaximumActiveConnections(3);
+      ds.setPoolMaximumIdleConnections(2);
+      List<Connection> connections = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        connections.add(ds.getConnection());
+      }
+      assertEquals(3, ds.getPoolState().getActiveConnectionCount());
+      for (Connection c : connections) {
+        c.close();
+      }
+      assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+      assertEquals(3, ds.getPoolState().getRequestCount());
+      assertEquals(0, ds.getPoolState().getBadConnectionCount());
+      assertNotNull(ds.getPoolState().toString());
+    } finally {
+      ds.forceCloseAll();
+    }
+    assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+  }
+
+  @Test
+  void shouldReturnLastReleasedConnectionToSameThreadInConcurrentMode() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolConcurrentMode(true);
+      Connection c1 = ds.getConnection();
+      Connection c2 = ds.getConnection();
+      Connection realConnection = PooledDataSource.unwrapConnection(c2);
+      c1.close();
+      c2.close();
+      Connection c3 = ds.getConnection();
+      assertSame(realConnection, PooledDataSource.unwrapConnection(c3));
+      c3.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  void shouldHandOffConnectionsToWaitingThreadsInConcurrentMode() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      ds.setPoolConcurrentMode(true);
+      ds.setPoolMaximumActiveConnections(2);
+      ds.setPoolMaximumIdleConnections(2);
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        futures.add(executor.submit(() -> {
+          for (int j = 0; j < 100; j++) {
+            try (Connection c = ds.getConnection()) {
+              assertFalse(c.isClosed());
+            }
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+      assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+      assertEquals(800, ds.getPoolState().getRequestCount());
+      assertEquals(0, ds.getPoolState().getBadConnectionCount());
+    } finally {
+      executor.shutdownNow();
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  void shouldFreeTheSlotOfBadConnectionsInConcurrentMode() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      ds.setPoolConcurrentMode(true);
+      ds.setPoolMaximumActiveConnections(1);
+      ds.setPoolTimeToWait(20000);
+      Connection c1 = ds.getConnection();
+      Future<Connection> c2 = executor.submit(() -> ds.getConnection());
+      Thread.sleep(200);
+      PooledDataSource.unwrapConnection(c1).close();
+      c1.close();
+      // the waiting thread opens a new connection instead of waiting for the timeout
+      c2.get(5, TimeUnit.SECONDS).close();
+      assertEquals(1, ds.getPoolState().getBadConnectionCount());
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      executor.shutdownNow();
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  void shouldReturnConnectionsWhileAnotherIsBeingOpened() throws Exception {
+    Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    CountDownLatch connecting = new CountDownLatch(1);
+    CountDownLatch proceed = new CountDownLatch(1);
+    AtomicBoolean slow = new AtomicBoolean();
+    UnpooledDataSource unpooled = new UnpooledDataSource(props.getProperty("driver"), props.getProperty("url"),
+        props.getProperty("username"), props.getProperty("password")) {
+      @Override
+      public Connection getConnection() throws SQLException {
+        if (slow.get()) {
+          connecting.countDown();
+          try {
+            proceed.await();
+          } catch (InterruptedException e) {
+            throw new SQLException(e);
+          }
+        }
+        return super.getConnection();
+      }
+    };
+    PooledDataSource ds = new PooledDataSource(unpooled);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      ds.setPoolMaximumActiveConnections(2);
+      Connection c1 = ds.getConnection();
+      slow.set(true);
+      Future<Connection> c2 = executor.submit(() -> ds.getConnection());
+      assertTrue(connecting.await(10, TimeUnit.SECONDS));
+      // neither the return nor the pool state must wait for the handshake in progress
+      c1.close();
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+      assertEquals(1, ds.getPoolState().getPendingConnectionCount());
+      proceed.countDown();
+      c2.get().close();
+      assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      proceed.countDown();
+      executor.shutdownNow();
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  void shouldReportConnectionsBeingOpenedInConcurrentMode() throws Exception {
+    Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    CountDownLatch connecting = new CountDownLatch(1);
+    CountDownLatch proceed = new CountDownLatch(1);
+    UnpooledDataSource unpooled = new UnpooledDataSource(props.getProperty("driver"), props.getProperty("url"),
+        props.getProperty("username"), props.getProperty("password")) {
+      @Override
+      public Connection getConnection() throws SQLException {
+        connecting.countDown();
+        try {
+          proceed.await();
+        } catch (InterruptedException e) {
+          throw new SQLException(e);
+        }
+        return super.getConnection();
+      }
+    };
+    PooledDataSource ds = new PooledDataSource(unpooled);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      ds.setPoolConcurrentMode(true);
+      Future<Connection> c1 = executor.submit(() -> ds.getConnection());
+      assertTrue(connecting.await(10, TimeUnit.SECONDS));
+      assertEquals(1, ds.getPoolState().getPendingConnectionCount());
+      proceed.countDown();
+      c1.get().close();
+      assertEquals(0, ds.getPoolState().getPendingConnectionCount());
+    } finally {
+      proceed.countDown();
+      executor.shutdownNow();
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  void shouldNotLimitPendingConnectionsWhenSetToZero() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      ds.setPoolMaximumPendingConnections(0);
+      // used to wait forever for a permit
+      executor.submit(() -> ds.getConnection()).get(10, TimeUnit.SECONDS).close();
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      executor.shutdownNow();
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  void shouldMaintainMinimumIdleConnectionsInBackground() throws Exception {
+    Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    props.setProperty("poolMinimumIdleConnections", "2");
+    props.setProperty("poolIdleTimeout", "50");
+    props.setProperty("poolHousekeepingInterval", "20");
+    PooledDataSourceFactory factory = new PooledDataSourceFactory();
+    factory.setProperties(props);
+    PooledDataSource ds = (PooledDataSource) factory.getDataSource();
+    try {
+      assertEquals(2, ds.getPoolMinimumIdleConnections());
+      waitForIdleConnectionCount(ds, 2);
+      List<Connection> connections = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        connections.add(ds.getConnection());
+      }
+      assertEquals(4, ds.getPoolState().getActiveConnectionCount());
+      for (Connection c : connections) {
+        c.close();
+      }
+      // connections beyond the minimum are closed once they have been idle for too long
+      waitForIdleConnectionCount(ds, 2);
+    } finally {
+      ds.setPoolHousekeepingInterval(0);
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  void shouldNotReturnExpiredConnectionsToPool() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumLifetime(1);
+      Connection c = ds.getConnection();
+      Thread.sleep(10);
+      c.close();
+      assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  void shouldPingConnectionsWithIsValid() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolPingEnabled(true);
+      ds.setPoolPingUseIsValid(true);
+      ds.setPoolPingTimeout(5);
+      ds.setPoolPingConnectionsNotUsedFor(0);
+      Connection c = ds.getConnection();
+      Thread.sleep(10);
+      c.close();
+      Thread.sleep(10);
+      c = ds.getConnection();
+      c.close();
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+      assertEquals(0, ds.getPoolState().getBadConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  void shouldNotPingConnectionsReturnedWithinBypassWindow() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolPingEnabled(true);
+      // any ping would fail and discard the connection
+      ds.setPoolPingQuery("SELECT * FROM NO_SUCH_TABLE");
+      ds.setPoolPingBypassWindow(60000);
+      Connection c = ds.getConnection();
+      Connection realConnection = PooledDataSource.unwrapConnection(c);
+      Thread.sleep(10);
+      c.close();
+      Thread.sleep(10);
+      c = ds.getConnection();
+      assertSame(realConnection, PooledDataSource.unwrapConnection(c));
+      c.close();
+      assertEquals(0, ds.getPoolState().getBadConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  void shouldRecordPoolMetrics() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      PoolMetrics metrics = new PoolMetrics();
+      ds.setPoolMetricsListener(metrics);
+      ds.setPoolMaximumActiveConnections(1);
+      ds.setPoolTimeToWait(10);
+      Connection c = ds.getConnection();
+      c.close();
+      c = ds.getConnection();
+      assertEquals(1, ds.getPoolState().getActiveConnectionCount());
+      assertEquals(0, ds.getPoolState().getPendingRequestCount());
+      c.close();
+      assertEquals(2, metrics.getCheckoutWaitTime().getCount());
+      assertEquals(2, metrics.getUsageTime().getCount());
+      assertEquals(1, metrics.getConnectTime().getCount());
+      assertEquals(0, metrics.getTimeoutCount());
+      assertEquals(0, metrics.getLeakCount());
+      assertNotNull(metrics.toString());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  void shouldReportConnectionsHeldPastLeakDetectionThreshold() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolLeakDetectionThreshold(50);
+      ds.setPoolHousekeepingInterval(10);
+      Connection c = ds.getConnection();
+      long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+      while (ds.getPoolState().getSuspectedLeakCount() == 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(1, ds.getPoolState().getSuspectedLeakCount());
+      Thread.sleep(50);
+      // reported once per checkout
+      assertEquals(1, ds.getPoolState().getSuspectedLeakCount());
+      c.close();
+      c = ds.getConnection();
+      c.close();
+      assertEquals(1, ds.getPoolState().getSuspectedLeakCount());
+    } finally {
+      ds.setPoolHousekeepingInterval(0);
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  void shouldReusePreparedStatementsAcrossCheckouts() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumActiveConnections(1);
+      ds.setPoolPreparedStatementCacheSize(1);
+      String sql = "SELECT COUNT(*) FROM INFORMATION_SCHEMA.SYSTEM_USERS";
+      Connection c = ds.getConnection();
+      PreparedStatement st = c.prepareStatement(sql);
+      PreparedStatement cached = st.unwrap(PreparedStatement.class);
+      st.setMaxRows(1);
+      st.close();
+      assertTrue(st.isClosed());
+      assertFalse(cached.isClosed());
+      assertThrows(SQLException.class, st::executeQuery);
+      c.close();
+
+      c = ds.getConnection();
+      st = c.prepareStatement(sql);
+      assertSame(cached, st.unwrap(PreparedStatement.class));
+      assertEquals(0, st.getMaxRows());
+      PreparedStatement scrollable = c.prepareStatement(sql, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+      assertNotSame(cached, scrollable.unwrap(PreparedStatement.class));
+      try (ResultSet rs = st.executeQuery()) {
+        assertTrue(rs.next());
+      }
+      st.close();
+      // the scrollable statement evicts the least recently used one
+      scrollable.close();
+      assertTrue(cached.isClosed());
+      c.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  void shouldNotReleaseTheStatementOfTheNextHolderOnDoubleClose() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumActiveConnections(1);
+      ds.setPoolPreparedStatementCacheSize(1);
+      String sql = "SELECT COUNT(*) FROM INFORMATION_SCHEMA.SYSTEM_USERS";
+      Connection c = ds.getConnection();
+      PreparedStatement first = c.prepareStatement(sql);
+      first.close();
+      PreparedStatement second = c.prepareStatement(sql);
+      PreparedStatement cached = second.unwrap(PreparedStatement.class);
+      first.close();
+      assertTrue(first.isClosed());
+      assertFalse(second.isClosed());
+      assertThrows(SQLException.class, first::executeQuery);
+      // the statement of the second holder is still in use, so it is not handed out again
+      PreparedStatement third = c.prepareStatement(sql);
+      assertNotSame(cached, third.unwrap(PreparedStatement.class));
+      try (ResultSet rs = second.executeQuery()) {
+        assertTrue(rs.next());
+      }
+      third.close();
+      second.close();
+      c.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  void shouldKeepCheckedOutConnectionWhenStatementCacheSizeChanges() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumActiveConnections(1);
+      String sql = "SELECT COUNT(*) FROM INFORMATION_SCHEMA.SYSTEM_USERS";
+      Connection c = ds.getConnection();
+      ds.setPoolPreparedStatementCacheSize(1);
+      // the ongoing checkout is not rolled back nor closed
+      assertFalse(c.isClosed());
+      try (PreparedStatement st = c.prepareStatement(sql); ResultSet rs = st.executeQuery()) {
+        assertTrue(rs.next());
+      }
+      c.close();
+      assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+
+      // the connection opened afterwards caches its statements
+      c = ds.getConnection();
+      PreparedStatement st = c.prepareStatement(sql);
+      PreparedStatement cached = st.unwrap(PreparedStatement.class);
+      st.close();
+      c.close();
+      c = ds.getConnection();
+      st = c.prepareStatement(sql);
+      assertSame(cached, st.unwrap(PreparedStatement.class));
+      st.close();
+      c.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  private void waitForIdleConnectionCount(PooledDataSource ds, int expected) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+    while (ds.getPoolState().getIdleConnectionCount() != expected && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(expected, ds.getPoolState().getIdleConnectionCount());
+  }
+
   @Disabled("See the comments")
   @Test
   void shouldReconnectWhenServerKilledLeakedConnection() throws Exception {
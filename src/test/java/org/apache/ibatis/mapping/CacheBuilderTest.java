@@ -18,11 +18,15 @@ package org.apache.ibatis.mapping;
 import org.apache.ibatis.builder.InitializingObject;
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.decorators.ExpiringCache;
+import org.apache.ibatis.cache.decorators.NearCache;
+import org.apache.ibatis.cache.impl.ConcurrentCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import java.lang.reflect.Field;
+import java.util.Properties;
 
 import static com.googlecode.catchexception.apis.BDDCatchException.*;
 import static org.assertj.core.api.BDDAssertions.then;
@@ -43,6 +47,40 @@ class CacheBuilderTest {
       .hasMessage("Failed cache initialization for 'test' on 'org.apache.ibatis.mapping.CacheBuilderTest$InitializingFailureCache'");
   }
 
+  @Test
+  void testConcurrentCacheIsNotSynchronized() {
+    ConcurrentCache cache = unwrap(new CacheBuilder("test").implementation(ConcurrentCache.class).size(10).build());
+
+    for (int i = 0; i < 20; i++) {
+      cache.putObject(i, i);
+    }
+    Assertions.assertThat(cache.getSize()).isEqualTo(10);
+  }
+
+  @Test
+  void testFlushIntervalExpiresEachEntry() {
+    Properties props = new Properties();
+    props.setProperty("jitter", "100");
+    props.setProperty("refreshAhead", "200");
+    Cache cache = new CacheBuilder("test").clearInterval(1000L).properties(props).build();
+    ExpiringCache expiringCache = unwrap(unwrap(cache));
+
+    Assertions.assertThat(expiringCache.getTimeToLive()).isEqualTo(1000L);
+    Assertions.assertThat(expiringCache.getJitter()).isEqualTo(100L);
+    Assertions.assertThat(expiringCache.getRefreshAhead()).isEqualTo(200L);
+  }
+
+  @Test
+  void testNearCacheWrapsCustomCache() {
+    Properties props = new Properties();
+    props.setProperty("nearCacheSize", "16");
+    Cache cache = new CacheBuilder("test").implementation(InitializingCache.class).properties(props).build();
+    NearCache nearCache = unwrap(cache);
+    InitializingCache customCache = unwrap(nearCache);
+
+    Assertions.assertThat(customCache.initialized).isTrue();
+  }
+
   @SuppressWarnings("unchecked")
   private <T> T unwrap(Cache cache) {
     Field field;